@@ -13,8 +13,19 @@ repositories {
 }
 
 dependencies {
-    implementation("io.github.littleproxy:littleproxy:2.5.0")
+    // ReusePortServerGroup extends LittleProxy's ServerGroup, which is not public API, and uses Netty 4.2's IoHandler
+    // event loops: keep both on the versions it was written against rather than whatever resolution picks
+    implementation("io.github.littleproxy:littleproxy") {
+        version { strictly("2.5.0") }
+    }
     implementation("org.slf4j:slf4j-simple:2.0.16")
+    implementation("org.bouncycastle:bcpkix-jdk18on:1.86")
+    constraints {
+        implementation("io.netty:netty-transport") {
+            version { strictly("[4.2.0.Final, 4.3)") }
+            because("LittleProxy 2.5 is built on 4.2; 4.1 has no MultiThreadIoEventLoopGroup or NioIoHandler")
+        }
+    }
 }
 
 java {
@@ -43,6 +54,24 @@ dependencies {
     integrationTestRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
 
+// Benchmark source set: JMH microbenchmarks and an offline load generator
+sourceSets {
+    create("benchmark") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+
+val benchmarkImplementation by configurations.getting {
+    extendsFrom(configurations.implementation.get())
+}
+val benchmarkAnnotationProcessor by configurations.getting
+
+dependencies {
+    benchmarkImplementation("org.openjdk.jmh:jmh-core:1.37")
+    benchmarkAnnotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
 val integrationTest = tasks.register<Test>("integrationTest") {
     description = "Runs integration tests."
     group = "verification"
@@ -58,6 +87,21 @@ tasks.register("verify") {
     dependsOn(tasks.check, integrationTest)
 }
 
+tasks.register<JavaExec>("jmh") {
+    description = "Runs the JMH microbenchmarks (pass JMH options with --args)."
+    group = "benchmark"
+    classpath = sourceSets["benchmark"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    args("-prof", "gc")
+}
+
+tasks.register<JavaExec>("loadTest") {
+    description = "Drives plain HTTP and CONNECT traffic through the proxy against local stand-ins."
+    group = "benchmark"
+    classpath = sourceSets["benchmark"].runtimeClasspath
+    mainClass.set("ccwproxy.LoadGenerator")
+}
+
 application {
     mainClass.set("ccwproxy.CcwProxy")
 }
@@ -70,6 +114,10 @@ graalvmNative {
             buildArgs.addAll(
                 "--no-fallback",
                 "-H:+ReportExceptionStackTraces",
+                // Netty initializes itself at build time (see its native-image.properties), and so do the proxy's own
+                // configuration and metric classes (see META-INF/native-image/ccwproxy). Anything else moved there
+                // must be named class by class, once the class initialization report (-H:+PrintClassInitialization)
+                // shows its static state holds no random seeds, selectors or other state of the build machine.
                 "--initialize-at-build-time=org.slf4j",
                 "-H:ReflectionConfigurationFiles=$projectDir/src/main/resources/META-INF/native-image/reflect-config.json",
                 // Enable runtime certificate loading instead of build-time embedding
@@ -28,8 +28,10 @@ else
   DOWNLOAD_URL="https://github.com/${REPO}/releases/download/${VERSION}/${BINARY_NAME}"
 fi
 
-curl -fsSL "$DOWNLOAD_URL" -o "$BINARY_PATH"
-chmod +x "$BINARY_PATH"
+# Download next to the binary and rename it into place: a running proxy keeps its old copy
+curl -fsSL "$DOWNLOAD_URL" -o "${BINARY_PATH}.download"
+chmod +x "${BINARY_PATH}.download"
+mv -f "${BINARY_PATH}.download" "$BINARY_PATH"
 
 echo "[ccw-setup] Installed ccw-proxy to ${BINARY_PATH}"
 
@@ -68,13 +70,23 @@ elif [ -n "$HTTP_PROXY" ]; then
   export CCW_UPSTREAM_PROXY="$HTTP_PROXY"
 fi
 
-# Stop any existing ccw-proxy instance
+# Settings in the config file can be changed without a restart: the proxy reloads it when it changes
+CONFIG_FILE="${CCW_PROXY_CONFIG_FILE:-${HOME}/.ccw-proxy/proxy.env}"
+mkdir -p -m 700 "$(dirname "$CONFIG_FILE")"
+(
+  umask 077
+  grep -v '^CCW_UPSTREAM_PROXY=' "$CONFIG_FILE" 2>/dev/null >"${CONFIG_FILE}.tmp" || true
+  echo "CCW_UPSTREAM_PROXY=${CCW_UPSTREAM_PROXY}" >>"${CONFIG_FILE}.tmp"
+  mv -f "${CONFIG_FILE}.tmp" "$CONFIG_FILE"
+)
+export CCW_PROXY_CONFIG_FILE="$CONFIG_FILE"
+
+# An existing instance keeps serving until the new one listens, then finishes its open connections and exits
+OLD_PID=""
 if [ -f /tmp/ccw-proxy.pid ]; then
   OLD_PID=$(cat /tmp/ccw-proxy.pid)
-  if kill -0 "$OLD_PID" 2>/dev/null; then
-    echo "[ccw-setup] Stopping existing ccw-proxy (pid: $OLD_PID)"
-    kill "$OLD_PID" 2>/dev/null || true
-    sleep 1
+  if ! kill -0 "$OLD_PID" 2>/dev/null; then
+    OLD_PID=""
   fi
 fi
 
@@ -120,13 +132,67 @@ else
 fi
 echo "[ccw-setup] --- End certificate debug ---"
 
+# The previous instance keeps writing to its own log while it drains
+if [ -n "$OLD_PID" ] && [ -f /tmp/ccw-proxy.log ]; then
+  mv -f /tmp/ccw-proxy.log /tmp/ccw-proxy.previous.log
+fi
+
+# A cache snapshot in the project checkout starts the proxy with a warm cache; write one with `ccw-proxy export-cache`
+SNAPSHOT_FILE="${CLAUDE_PROJECT_DIR:-$PWD}/.ccw-proxy/cache.snapshot"
+if [ -z "$CCW_PROXY_CACHE_SNAPSHOT" ] && [ -f "$SNAPSHOT_FILE" ]; then
+  export CCW_PROXY_CACHE_SNAPSHOT="$SNAPSHOT_FILE"
+fi
+if [ -n "$CCW_PROXY_CACHE_SNAPSHOT" ]; then
+  echo "[ccw-setup] Restoring the artifact cache from ${CCW_PROXY_CACHE_SNAPSHOT}"
+fi
+
+# Written by the new instance once it accepts connections
+export CCW_PROXY_READY_FILE=/tmp/ccw-proxy.ready
+rm -f "$CCW_PROXY_READY_FILE"
+
 nohup "$BINARY_PATH" $JVM_ARGS >/tmp/ccw-proxy.log 2>&1 &
-echo $! >/tmp/ccw-proxy.pid
+NEW_PID=$!
+echo "$NEW_PID" >/tmp/ccw-proxy.pid
+
+# Wait until it is ready; the port is shared with the previous instance, unless that predates port sharing
+for _ in $(seq 1 300); do
+  [ -s "$CCW_PROXY_READY_FILE" ] && break
+  kill -0 "$NEW_PID" 2>/dev/null || break
+  if [ -n "$OLD_PID" ] && grep -q "is in use" /tmp/ccw-proxy.log 2>/dev/null; then
+    echo "[ccw-setup] Stopping previous ccw-proxy (pid: $OLD_PID), which does not share its port"
+    kill "$OLD_PID" 2>/dev/null || true
+    OLD_PID=""
+  fi
+  sleep 0.05
+done
+
+if kill -0 "$NEW_PID" 2>/dev/null && [ -s "$CCW_PROXY_READY_FILE" ]; then
+  echo "[ccw-setup] ccw-proxy ready (pid: $NEW_PID, $(grep -o 'ready in .*' /tmp/ccw-proxy.log | head -1))"
+  echo "[ccw-setup] To change settings without a restart, edit $CONFIG_FILE (SIGHUP stops the proxy)"
+  if [ -n "$OLD_PID" ]; then
+    echo "[ccw-setup] Previous ccw-proxy (pid: $OLD_PID) is finishing its open connections"
+    kill "$OLD_PID" 2>/dev/null || true
+  fi
 
-# Wait briefly and check if it started
-sleep 1
-if kill -0 "$(cat /tmp/ccw-proxy.pid)" 2>/dev/null; then
-  echo "[ccw-setup] ccw-proxy started (pid: $(cat /tmp/ccw-proxy.pid))"
+  # Trust the local CA so Gradle/Maven accept intercepted connections
+  if [ "$CCW_PROXY_INTERCEPT" = "true" ] || [ -n "$CCW_PROXY_INTERCEPT_HOSTS" ]; then
+    CA_PEM="${CCW_PROXY_CA_DIR:-${HOME}/.ccw-proxy}/ca.pem"
+    for _ in 1 2 3 4 5; do
+      [ -f "$CA_PEM" ] && break
+      sleep 1
+    done
+    if [ -n "$JAVA_HOME" ] && [ -f "$JAVA_HOME/lib/security/cacerts" ] && [ -f "$CA_PEM" ]; then
+      keytool -delete -alias ccw-proxy-ca -keystore "$JAVA_HOME/lib/security/cacerts" -storepass changeit >/dev/null 2>&1 || true
+      if keytool -importcert -noprompt -alias ccw-proxy-ca -file "$CA_PEM" \
+        -keystore "$JAVA_HOME/lib/security/cacerts" -storepass changeit >/dev/null 2>&1; then
+        echo "[ccw-setup] Imported ccw-proxy CA into $JAVA_HOME/lib/security/cacerts"
+      else
+        echo "[ccw-setup] Warning: could not import $CA_PEM into Java truststore (may need sudo)"
+      fi
+    else
+      echo "[ccw-setup] Warning: TLS interception enabled but CA or Java truststore not found"
+    fi
+  fi
 
   # Persist environment variables for Claude Code Web
   # Write to CLAUDE_ENV_FILE so they're available to subsequent commands
@@ -137,6 +203,10 @@ if kill -0 "$(cat /tmp/ccw-proxy.pid)" 2>/dev/null; then
       echo "HTTPS_PROXY=http://127.0.0.1:15080"
       echo "http_proxy=http://127.0.0.1:15080"
       echo "https_proxy=http://127.0.0.1:15080"
+      # So `ccw-proxy export-cache` without arguments updates the snapshot the proxy started from
+      if [ -n "$CCW_PROXY_CACHE_SNAPSHOT" ]; then
+        echo "CCW_PROXY_CACHE_SNAPSHOT=${CCW_PROXY_CACHE_SNAPSHOT}"
+      fi
     } >>"$CLAUDE_ENV_FILE"
     echo "[ccw-setup] Environment variables written to CLAUDE_ENV_FILE"
   else
@@ -145,6 +215,24 @@ if kill -0 "$(cat /tmp/ccw-proxy.pid)" 2>/dev/null; then
 
   echo "[ccw-setup] Setup complete!"
 else
-  echo "[ccw-setup] ERROR: ccw-proxy failed to start. Check /tmp/ccw-proxy.log"
+  if kill -0 "$NEW_PID" 2>/dev/null; then
+    echo "[ccw-setup] ERROR: ccw-proxy (pid: $NEW_PID) was not ready after 15s, stopping it" >&2
+    kill "$NEW_PID" 2>/dev/null || true
+    for _ in $(seq 1 20); do
+      kill -0 "$NEW_PID" 2>/dev/null || break
+      sleep 0.1
+    done
+    kill -9 "$NEW_PID" 2>/dev/null || true
+  else
+    echo "[ccw-setup] ERROR: ccw-proxy (pid: $NEW_PID) exited during startup" >&2
+  fi
+  if [ -n "$OLD_PID" ] && kill -0 "$OLD_PID" 2>/dev/null; then
+    echo "$OLD_PID" >/tmp/ccw-proxy.pid
+    echo "[ccw-setup] ERROR: the previous ccw-proxy (pid: $OLD_PID) is still serving the old version" >&2
+  else
+    rm -f /tmp/ccw-proxy.pid
+    echo "[ccw-setup] ERROR: no ccw-proxy is running" >&2
+  fi
+  echo "[ccw-setup] ERROR: ccw-proxy failed to start. Check /tmp/ccw-proxy.log" >&2
   exit 1
 fi
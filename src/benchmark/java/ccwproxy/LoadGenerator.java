@@ -0,0 +1,357 @@
+package ccwproxy;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+
+/**
+ * Offline load test. Starts a local origin serving artifact-sized payloads, an in-process LittleProxy standing in for
+ * the upstream proxy and ccw-proxy itself, then drives plain HTTP and {@code CONNECT} traffic through ccw-proxy over
+ * keep-alive connections. Reports throughput, latency percentiles and the allocation rate of ccw-proxy's threads.
+ *
+ * <p>Options are {@code key=value} arguments: {@code connections} (default 16), {@code duration} and {@code warmup} in
+ * seconds (20 and 5), {@code mode} ({@code http}, {@code connect} or {@code both}) and {@code sizes}, a comma-separated
+ * mix of response sizes cycled through per request (default mostly POM-sized with some JARs). ccw-proxy is configured
+ * from the environment as usual, except that the upstream is always the local stand-in, and the artifact cache and
+ * admin endpoint are off unless set explicitly.
+ */
+final class LoadGenerator {
+
+    private static final String DEFAULT_SIZES = "4k,4k,4k,256k,4m";
+    private static final byte[] PAYLOAD = new byte[64 * 1024];
+
+    private final int connections;
+    private final Duration duration;
+    private final Duration warmup;
+    private final int[] sizes;
+    private final AtomicLong sequence = new AtomicLong();
+
+    private LoadGenerator(int connections, Duration duration, Duration warmup, int[] sizes) {
+        this.connections = connections;
+        this.duration = duration;
+        this.warmup = warmup;
+        this.sizes = sizes;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                System.err.println("ERROR: expected key=value, got " + arg);
+                System.exit(1);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        LoadGenerator generator;
+        String mode = options.getOrDefault("mode", "both");
+        try {
+            generator = new LoadGenerator(
+                    ProxyConfig.parseCount(
+                            "connections", options.getOrDefault("connections", "16"), 1, "a positive number"),
+                    ProxyConfig.parseSeconds("duration", options.getOrDefault("duration", "20")),
+                    ProxyConfig.parseSeconds("warmup", options.getOrDefault("warmup", "5")),
+                    parseSizes(options.getOrDefault("sizes", DEFAULT_SIZES)));
+            if (!List.of("http", "connect", "both").contains(mode)) {
+                throw new IllegalArgumentException("Invalid mode (expected http, connect or both)");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        HttpServer origin = startOrigin(new InetSocketAddress(loopback, 0));
+        HttpProxyServer upstream = DefaultHttpProxyServer.bootstrap()
+                .withName("bench-upstream")
+                .withAddress(new InetSocketAddress(loopback, 0))
+                .withAllowLocalOnly(true)
+                .start();
+
+        Map<String, String> env = new HashMap<>(System.getenv());
+        env.remove("CCW_UPSTREAM_PROXIES");
+        env.put(
+                "CCW_UPSTREAM_PROXY",
+                "http://bench:bench@" + loopback.getHostAddress() + ":"
+                        + upstream.getListenAddress().getPort());
+        env.put("PROXY_SHIM_LISTEN", loopback.getHostAddress() + ":0");
+        env.putIfAbsent("CCW_PROXY_CACHE_MAX_SIZE", "0");
+        env.putIfAbsent("CCW_PROXY_ADMIN_LISTEN", "off");
+        CcwProxy proxy = CcwProxy.start(ProxyConfig.fromEnvironment(env));
+
+        InetSocketAddress originAddress =
+                new InetSocketAddress(loopback, origin.getAddress().getPort());
+        try {
+            if (!mode.equals("connect")) {
+                generator.run("plain HTTP", false, proxy.address(), originAddress);
+            }
+            if (!mode.equals("http")) {
+                generator.run("CONNECT", true, proxy.address(), originAddress);
+            }
+        } finally {
+            proxy.stop();
+            upstream.stop();
+            origin.stop(0);
+        }
+    }
+
+    private static int[] parseSizes(String value) {
+        String[] parts = value.split(",");
+        int[] sizes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            long size = ProxyConfig.parseSize("sizes", parts[i]);
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid size in sizes (at most 2g)");
+            }
+            sizes[i] = (int) size;
+        }
+        return sizes;
+    }
+
+    /**
+     * Origin answering {@code /artifacts/<bytes>/<n>.jar} with that many bytes.
+     */
+    private static HttpServer startOrigin(InetSocketAddress address) throws IOException {
+        HttpServer origin = HttpServer.create(address, 1024);
+        origin.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        origin.createContext("/artifacts/", exchange -> {
+            int size = Integer.parseInt(exchange.getRequestURI().getPath().split("/")[2]);
+            exchange.getResponseHeaders().set("Content-Type", "application/java-archive");
+            exchange.sendResponseHeaders(200, size);
+            try (OutputStream body = exchange.getResponseBody()) {
+                for (int written = 0; written < size; written += PAYLOAD.length) {
+                    body.write(PAYLOAD, 0, Math.min(PAYLOAD.length, size - written));
+                }
+            }
+        });
+        origin.start();
+        return origin;
+    }
+
+    /**
+     * Runs one phase: every connection requests artifacts back to back; only requests completing after the warmup
+     * are measured.
+     */
+    private void run(String name, boolean tunnel, InetSocketAddress proxy, InetSocketAddress origin)
+            throws InterruptedException {
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder bytes = new LongAdder();
+        LongAdder errors = new LongAdder();
+        long measureFrom = System.nanoTime() + warmup.toNanos();
+        long measureUntil = measureFrom + duration.toNanos();
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            int offset = i;
+            workers.add(Thread.ofPlatform().name("load-" + i).start(() -> {
+                int request = offset;
+                while (System.nanoTime() < measureUntil) {
+                    try (Client client = Client.open(proxy, tunnel ? origin : null)) {
+                        while (true) {
+                            int size = sizes[request++ % sizes.length];
+                            long start = System.nanoTime();
+                            if (start >= measureUntil) {
+                                break;
+                            }
+                            long received = client.get(
+                                    (tunnel ? "" : "http://" + hostPort(origin)),
+                                    hostPort(origin),
+                                    "/artifacts/" + size + "/" + sequence.incrementAndGet() + ".jar");
+                            long end = System.nanoTime();
+                            if (start >= measureFrom && end <= measureUntil) {
+                                latency.recordNanos(end - start);
+                                bytes.add(received);
+                            }
+                        }
+                    } catch (IOException e) {
+                        if (System.nanoTime() >= measureFrom) {
+                            errors.increment();
+                        }
+                    }
+                }
+            }));
+        }
+
+        TimeUnit.NANOSECONDS.sleep(Math.max(0, measureFrom - System.nanoTime()));
+        long allocatedBefore = proxyAllocatedBytes();
+        long[] gcBefore = gcTotals();
+        TimeUnit.NANOSECONDS.sleep(Math.max(0, measureUntil - System.nanoTime()));
+        long allocated = proxyAllocatedBytes() - allocatedBefore;
+        long[] gcAfter = gcTotals();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        LatencyHistogram.Snapshot snapshot = latency.snapshot();
+        double seconds = duration.toNanos() / 1e9;
+        System.out.printf(Locale.ROOT, "%s: %d connections, %d s%n", name, connections, duration.toSeconds());
+        System.out.printf(
+                Locale.ROOT,
+                "  requests    %d (%.1f/s), %d errors%n",
+                snapshot.count,
+                snapshot.count / seconds,
+                errors.sum());
+        System.out.printf(Locale.ROOT, "  throughput  %.1f MB/s%n", bytes.sum() / seconds / (1024 * 1024));
+        System.out.printf(
+                Locale.ROOT,
+                "  latency     p50 %s, p90 %s, p99 %s, p99.9 %s%n",
+                millis(snapshot.percentileMicros(0.5)),
+                millis(snapshot.percentileMicros(0.9)),
+                millis(snapshot.percentileMicros(0.99)),
+                millis(snapshot.percentileMicros(0.999)));
+        System.out.printf(
+                Locale.ROOT,
+                "  allocation  %.1f MB/s on proxy threads (%.1f KB per request)%n",
+                allocated / seconds / (1024 * 1024),
+                snapshot.count == 0 ? 0.0 : allocated / 1024.0 / snapshot.count);
+        System.out.printf(
+                Locale.ROOT,
+                "  gc          %d collections, %d ms%n",
+                gcAfter[0] - gcBefore[0],
+                gcAfter[1] - gcBefore[1]);
+    }
+
+    private static String hostPort(InetSocketAddress address) {
+        return address.getAddress().getHostAddress() + ":" + address.getPort();
+    }
+
+    private static String millis(long micros) {
+        return String.format(Locale.ROOT, "%.2f ms", micros / 1000.0);
+    }
+
+    /**
+     * Bytes allocated so far by ccw-proxy's event loops and log writer. The stand-in upstream's threads are named
+     * differently and not counted.
+     */
+    private static long proxyAllocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            String name = thread.getName();
+            if (name.startsWith("LittleProxy-") || name.startsWith("ccw-proxy-")) {
+                total += Math.max(0, threads.getThreadAllocatedBytes(thread.threadId()));
+            }
+        }
+        return total;
+    }
+
+    private static long[] gcTotals() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[] {count, millis};
+    }
+
+    /**
+     * One keep-alive client connection to the proxy, optionally tunnelled to the origin with {@code CONNECT}.
+     */
+    private static final class Client implements Closeable {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final byte[] discard = new byte[64 * 1024];
+        private final StringBuilder line = new StringBuilder();
+
+        private Client(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        static Client open(InetSocketAddress proxy, InetSocketAddress tunnelTo) throws IOException {
+            Socket socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(proxy);
+            Client client = new Client(socket);
+            if (tunnelTo != null) {
+                String target = hostPort(tunnelTo);
+                client.send("CONNECT " + target + " HTTP/1.1\r\nHost: " + target + "\r\n\r\n");
+                client.readHead();
+            }
+            return client;
+        }
+
+        /**
+         * Sends one {@code GET} and reads the whole response, returning the body length.
+         */
+        long get(String prefix, String host, String path) throws IOException {
+            send("GET " + prefix + path + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n");
+            long remaining = readHead();
+            long length = remaining;
+            while (remaining > 0) {
+                int read = in.read(discard, 0, (int) Math.min(discard.length, remaining));
+                if (read < 0) {
+                    throw new IOException("connection closed mid-body");
+                }
+                remaining -= read;
+            }
+            return length;
+        }
+
+        private void send(String head) throws IOException {
+            out.write(head.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+
+        /**
+         * Reads a {@code 200} response head and returns its content length, or 0 if it has none.
+         */
+        private long readHead() throws IOException {
+            String status = readLine();
+            if (!status.startsWith("HTTP/1.1 200")) {
+                throw new IOException("unexpected response: " + status);
+            }
+            long length = 0;
+            for (String header = readLine(); !header.isEmpty(); header = readLine()) {
+                if (header.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                    length = Long.parseLong(header.substring(15).trim());
+                }
+            }
+            return length;
+        }
+
+        private String readLine() throws IOException {
+            line.setLength(0);
+            for (int c = in.read(); c != '\n'; c = in.read()) {
+                if (c < 0) {
+                    throw new IOException("connection closed");
+                }
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return line.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
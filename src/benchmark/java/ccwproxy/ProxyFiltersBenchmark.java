@@ -0,0 +1,201 @@
+package ccwproxy;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import org.littleshoot.proxy.ChainedProxy;
+import org.littleshoot.proxy.HttpFilters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-request cost of ccw-proxy's own code on LittleProxy's event loop: the filter chain for a plain {@code GET}, a
+ * download and a {@code CONNECT}, the upstream credential injection and the direct-routing decision. The channel is an
+ * {@link EmbeddedChannel}, so no I/O is measured. Run with {@code -prof gc} to see what each allocates.
+ *
+ * <p>The path is not allocation-free: each request still creates its {@link ProxyFilters}, their {@link PhaseTimer}
+ * and, when limited, a concurrency permit. LittleProxy asks for new filters per request and may call them after the
+ * next request on the connection has begun, so they cannot be recycled safely. Each figure also includes the request
+ * object the benchmark itself creates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProxyFiltersBenchmark {
+
+    private static final String URI = "http://repo1.maven.org/maven2/org/example/lib/1.0/lib-1.0.jar";
+    private static final String CONNECT_URI = "repo1.maven.org:443";
+    private static final int DOWNLOAD_CHUNKS = 16;
+    private static final List<String> NO_PROXY =
+            List.of("localhost", "127.0.0.1", "10.0.0.0/8", ".svc.cluster.local", "metadata.google.internal");
+
+    private AccessLog log;
+    private ProxyFiltersSource filtersSource;
+    private EmbeddedChannel channel;
+    private ChannelHandlerContext ctx;
+    private ChainedProxy upstream;
+    private HttpResponse response;
+    private HttpResponse downloadResponse;
+    private HttpContent[] chunks;
+    private FullHttpResponse connectRefused;
+    private DirectRoutes directRoutes;
+    private HttpRequest internalConnect;
+
+    @Setup
+    public void setUp() {
+        log = new AccessLog(OutputStream.nullOutputStream(), AccessLog.Format.TEXT, AccessLog.DEFAULT_CAPACITY);
+        Metrics metrics = new Metrics();
+        // Same components as a default configuration, minus the disk cache
+        filtersSource = new ProxyFiltersSource(
+                false,
+                ProxyConfig.DEFAULT_SLOW_THRESHOLD.toNanos(),
+                log,
+                metrics,
+                new BufferBudget(BufferBudget.DEFAULT_CONNECTION_BYTES, BufferBudget.DEFAULT_TOTAL_BYTES),
+                null,
+                new NegativeCache(NegativeCache.DEFAULT_TTL, NegativeCache.DEFAULT_CAPACITY),
+                null,
+                new RequestCoalescer(),
+                new ConcurrencyLimiter(
+                        ConcurrencyLimiter.DEFAULT_INITIAL_LIMIT,
+                        ConcurrencyLimiter.DEFAULT_MAX_LIMIT,
+                        ConcurrencyLimiter.DEFAULT_QUEUE_SIZE),
+                null);
+
+        channel = new EmbeddedChannel();
+        channel.pipeline().addLast("handler", new ChannelInboundHandlerAdapter());
+        ctx = channel.pipeline().context("handler");
+
+        String basicAuth = Base64.getEncoder().encodeToString("user:pass".getBytes(StandardCharsets.UTF_8));
+        UpstreamProxy proxy = new UpstreamProxy(
+                new CachedAddress("127.0.0.1", 3128, ProxyConfig.DEFAULT_DNS_TTL, log), basicAuth, log, metrics);
+        Queue<ChainedProxy> attempts = new ArrayDeque<>();
+        new UpstreamPool(List.of(proxy), log).lookupChainedProxies(null, attempts, null);
+        upstream = attempts.poll();
+
+        response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        HttpUtil.setContentLength(response, 1024);
+        // A 128 KB artifact in the 8 KB chunks LittleProxy's decoder produces
+        chunks = new HttpContent[DOWNLOAD_CHUNKS];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new DefaultHttpContent(Unpooled.wrappedBuffer(new byte[8192]));
+        }
+        downloadResponse = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        HttpUtil.setContentLength(downloadResponse, DOWNLOAD_CHUNKS * 8192L);
+        connectRefused = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_GATEWAY, Unpooled.EMPTY_BUFFER);
+
+        directRoutes = DirectRoutes.compile(NO_PROXY);
+        internalConnect =
+                new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.CONNECT, "nexus.tools.svc.cluster.local:8443");
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+        log.close();
+    }
+
+    /**
+     * A plain {@code GET} from arrival to the end of its response, as LittleProxy drives the filters.
+     */
+    @Benchmark
+    public HttpObject getThroughFilters() {
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, URI);
+        HttpFilters filters = filtersSource.filterRequest(request, ctx);
+        filters.clientToProxyRequest(request);
+        filters.proxyToServerRequest(request);
+        upstream.filterRequest(request);
+        filters.serverToProxyResponse(response);
+        filters.proxyToClientResponse(response);
+        filters.serverToProxyResponse(LastHttpContent.EMPTY_LAST_CONTENT);
+        return filters.proxyToClientResponse(LastHttpContent.EMPTY_LAST_CONTENT);
+    }
+
+    /**
+     * A plain {@code GET} of an artifact, streamed through the filters chunk by chunk.
+     */
+    @Benchmark
+    public HttpObject downloadThroughFilters() {
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, URI);
+        HttpFilters filters = filtersSource.filterRequest(request, ctx);
+        filters.clientToProxyRequest(request);
+        filters.proxyToServerRequest(request);
+        upstream.filterRequest(request);
+        filters.serverToProxyResponse(downloadResponse);
+        filters.proxyToClientResponse(downloadResponse);
+        for (HttpContent chunk : chunks) {
+            filters.serverToProxyResponse(chunk);
+            filters.proxyToClientResponse(chunk);
+        }
+        filters.serverToProxyResponse(LastHttpContent.EMPTY_LAST_CONTENT);
+        return filters.proxyToClientResponse(LastHttpContent.EMPTY_LAST_CONTENT);
+    }
+
+    /**
+     * A {@code CONNECT} up to LittleProxy answering it, which is all the filters see of an opaque tunnel. The answer is
+     * an error so that tunnel-close listeners do not pile up on the one shared channel.
+     */
+    @Benchmark
+    public Object connectThroughFilters() {
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.CONNECT, CONNECT_URI);
+        HttpFilters filters = filtersSource.filterRequest(request, ctx);
+        filters.clientToProxyRequest(request);
+        filters.proxyToServerRequest(request);
+        upstream.filterRequest(request);
+        channel.writeOutbound(connectRefused);
+        return channel.readOutbound();
+    }
+
+    /**
+     * Adding the upstream's {@code Proxy-Authorization} to a request.
+     */
+    @Benchmark
+    public HttpRequest credentialInjection() {
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, URI);
+        upstream.filterRequest(request);
+        return request;
+    }
+
+    /**
+     * Deciding whether a new connection bypasses the upstream, for a host matching a typical {@code NO_PROXY}.
+     */
+    @Benchmark
+    public boolean directRouting() {
+        return directRoutes.isDirect(internalConnect);
+    }
+}
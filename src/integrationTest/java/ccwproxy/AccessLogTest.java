@@ -0,0 +1,127 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Verifies access log formatting and that a stalled writer drops events instead of blocking.
+ */
+class AccessLogTest {
+
+    @Test
+    void writesTextLinesInOrder() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AccessLog log = new AccessLog(out, AccessLog.Format.TEXT, 16);
+        log.request("GET", "https://repo1.maven.org/a.pom");
+        log.response("GET", "https://repo1.maven.org/a.pom", 404, System.nanoTime());
+        log.timeout("GET", "https://repo1.maven.org/b.pom");
+        log.message("CONNECTION FAILED to upstream proxy:3128");
+        log.close();
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].matches("\\[\\d{4}-.*Z] GET https://repo1.maven.org/a.pom"), lines[0]);
+        assertTrue(lines[1].matches(".* GET https://repo1.maven.org/a.pom -> 404 \\(\\d+ms\\)"), lines[1]);
+        assertTrue(lines[2].endsWith(" -> TIMEOUT (upstream did not respond)"), lines[2]);
+        assertTrue(lines[3].endsWith("] CONNECTION FAILED to upstream proxy:3128"), lines[3]);
+    }
+
+    @Test
+    void writesEscapedJsonLines() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AccessLog log = new AccessLog(out, AccessLog.Format.JSON, 16);
+        log.response("GET", "/a\"b", 502, System.nanoTime());
+        log.close();
+
+        String line = out.toString(StandardCharsets.UTF_8).trim();
+        assertTrue(
+                line.matches("\\{\"ts\":\"[^\"]+\",\"event\":\"response\",\"method\":\"GET\",\"uri\":\"/a\\\\\"b\","
+                        + "\"status\":502,\"durationNanos\":\\d+}"),
+                line);
+    }
+
+    @Test
+    void writesPhaseBreakdowns() {
+        long ms = 1_000_000;
+        long start = System.nanoTime() - 1000 * ms;
+        // A tunnel through the upstream: TCP connect, CONNECT exchange, then the origin's first byte
+        PhaseTimer tunnel = new PhaseTimer(start, true);
+        tunnel.connectStart = start + ms;
+        tunnel.tcpConnected = start + 4 * ms;
+        tunnel.connected = start + 54 * ms;
+        tunnel.firstByte = start + 154 * ms;
+        tunnel.completed = start + 1000 * ms;
+        tunnel.bytesUp = 517;
+        tunnel.bytesDown = 4096;
+        // A request on a reused connection only waits and transfers
+        PhaseTimer request = new PhaseTimer(start, false);
+        request.requestSent = start + 2 * ms;
+        request.firstByte = start + 12 * ms + ms / 2;
+        request.completed = start + 20 * ms;
+        request.bytesDown = 1024;
+
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        AccessLog log = new AccessLog(text, AccessLog.Format.TEXT, 16);
+        log.timed(AccessLog.Event.TUNNEL_CLOSED, "CONNECT", "repo1.maven.org:443", 0, tunnel, true);
+        log.timed(AccessLog.Event.COMPLETED, "GET", "http://example.org/a.jar", 200, request, false);
+        log.close();
+        String[] lines = text.toString(StandardCharsets.UTF_8).split("\n");
+        assertTrue(
+                lines[0].matches(
+                        ".* CONNECT repo1.maven.org:443 -> tunnel closed, SLOW setup \\(\\d+ms: connect 3.0ms, "
+                                + "handshake 50.0ms, wait 100.0ms, transfer 846.0ms; 517 bytes up, 4096 bytes down\\)"),
+                lines[0]);
+        assertTrue(
+                lines[1].matches(".* GET http://example.org/a.jar -> 200 complete \\(\\d+ms: wait 10.5ms, "
+                        + "transfer 7.5ms; 1024 bytes\\)"),
+                lines[1]);
+
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        log = new AccessLog(json, AccessLog.Format.JSON, 16);
+        log.timed(AccessLog.Event.COMPLETED, "GET", "http://example.org/a.jar", 200, request, false);
+        log.close();
+        String line = json.toString(StandardCharsets.UTF_8).trim();
+        assertTrue(
+                line.matches(".*\"event\":\"completed\".*\"status\":200,\"durationNanos\":\\d+,"
+                        + "\"waitNanos\":10500000,\"transferNanos\":7500000,\"bytesDown\":1024}"),
+                line);
+        assertEquals(12 * ms + ms / 2, request.latencyNanos());
+    }
+
+    @Test
+    void dropsEventsWhenRingIsFull() throws Exception {
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        OutputStream blocking = new OutputStream() {
+            @Override
+            public void write(int b) {}
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                stalled.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        AccessLog log = new AccessLog(blocking, AccessLog.Format.TEXT, 4);
+        log.request("GET", "/first");
+        stalled.await();
+
+        // The writer is stuck on the first line; four slots fill up and the rest are dropped
+        for (int i = 0; i < 10; i++) {
+            log.request("GET", "/" + i);
+        }
+        assertEquals(6, log.dropped.sum());
+
+        release.countDown();
+        log.close();
+    }
+}
@@ -0,0 +1,70 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Verifies the admin endpoint's {@code /ready} route follows the readiness it is given.
+ */
+class AdminServerTest {
+
+    private final AccessLog log = new AccessLog(new ByteArrayOutputStream(), AccessLog.Format.TEXT, 64);
+    private final HttpClient client = HttpClient.newBuilder().proxy(HttpClient.Builder.NO_PROXY).build();
+    private final AtomicBoolean accepting = new AtomicBoolean(true);
+    private UpstreamPool upstreamPool;
+    private AdminServer admin;
+
+    @BeforeEach
+    void start() throws Exception {
+        Metrics metrics = new Metrics();
+        upstreamPool = new UpstreamPool(List.of(), log);
+        admin = AdminServer.start(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                metrics,
+                upstreamPool,
+                null,
+                new BufferBudget(BufferBudget.DEFAULT_CONNECTION_BYTES, BufferBudget.DEFAULT_TOTAL_BYTES),
+                null,
+                null,
+                null,
+                null,
+                log,
+                accepting::get);
+    }
+
+    @AfterEach
+    void stop() {
+        admin.stop();
+        upstreamPool.close();
+        log.close();
+    }
+
+    @Test
+    void readyWhileAcceptingConnections() throws Exception {
+        HttpResponse<String> ready = get("/ready");
+        assertEquals(200, ready.statusCode());
+        assertEquals("ready\n", ready.body());
+
+        accepting.set(false);
+        HttpResponse<String> draining = get("/ready");
+        assertEquals(503, draining.statusCode());
+        assertEquals("not accepting connections\n", draining.body());
+    }
+
+    private HttpResponse<String> get(String path) throws Exception {
+        URI uri = URI.create("http://127.0.0.1:" + admin.address().getPort() + path);
+        return client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,124 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Verifies the on-disk artifact cache stores, serves and evicts entries.
+ */
+class ArtifactCacheTest {
+
+    private static final String JAR = "https://repo1.maven.org/maven2/org/example/lib/1.0/lib-1.0.jar";
+    private static final String POM = "https://repo1.maven.org/maven2/org/example/lib/1.0/lib-1.0.pom";
+
+    private final AccessLog log = new AccessLog(new ByteArrayOutputStream(), AccessLog.Format.TEXT, 64);
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void closeLog() {
+        log.close();
+    }
+
+    @Test
+    void servesStoredEntryAfterReopen() throws Exception {
+        ArtifactCache cache = ArtifactCache.open(tempDir, 1024 * 1024, log);
+        assertNull(cache.lookup(JAR));
+
+        store(cache, JAR, "jar-bytes");
+
+        ArtifactCache reopened = ArtifactCache.open(tempDir, 1024 * 1024, log);
+        FullHttpResponse response = reopened.lookup(JAR);
+        assertNotNull(response);
+        assertEquals("jar-bytes", response.content().toString(StandardCharsets.UTF_8));
+        assertEquals("\"abc\"", response.headers().get(HttpHeaderNames.ETAG));
+        assertEquals(1, reopened.hits.sum());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntryWhenOverCap() throws Exception {
+        ArtifactCache cache = ArtifactCache.open(tempDir, 1024 * 1024, log);
+        store(cache, JAR, "x".repeat(600 * 1024));
+        store(cache, POM, "y".repeat(600 * 1024));
+
+        assertNull(cache.lookup(JAR));
+        assertNotNull(cache.lookup(POM));
+        assertEquals(1, cache.evictions.sum());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void abortedWriteLeavesNoEntry() throws Exception {
+        ArtifactCache cache = ArtifactCache.open(tempDir, 1024 * 1024, log);
+        ArtifactCache.Writer writer = cache.begin(JAR, null);
+        writer.write(Unpooled.copiedBuffer("partial", StandardCharsets.UTF_8));
+        writer.abort();
+
+        assertNull(cache.lookup(JAR));
+        try (var files = Files.list(tempDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void rejectsEntriesTooLargeToStore() throws Exception {
+        ArtifactCache cache = ArtifactCache.open(tempDir, 1024 * 1024, log);
+        assertNull(cache.begin(JAR + "?" + "x".repeat(70_000), null));
+        assertNull(cache.begin(JAR, "\"" + "e".repeat(70_000) + "\""));
+
+        ArtifactCache.Writer writer = cache.begin(JAR, null);
+        assertTrue(writer.fits(1024));
+        assertFalse(writer.fits(ArtifactCache.MAX_ENTRY_BYTES));
+        writer.abort();
+        try (var files = Files.list(tempDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void onlyReleaseArtifactGetsAreCacheable() {
+        assertTrue(ArtifactCache.isCacheable(get("/maven2/org/example/lib/1.0/lib-1.0.jar")));
+        assertTrue(ArtifactCache.isCacheable(get("/maven2/org/example/lib/1.0/lib-1.0.module")));
+        assertFalse(ArtifactCache.isCacheable(get("/maven2/org/example/lib/maven-metadata.xml")));
+        assertFalse(ArtifactCache.isCacheable(get("/maven2/org/example/lib/1.0-SNAPSHOT/lib-1.0-SNAPSHOT.jar")));
+        assertFalse(ArtifactCache.isCacheable(
+                new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.HEAD, "/maven2/lib-1.0.jar")));
+    }
+
+    @Test
+    void onlyArtifactChecksumsAreCacheable() {
+        assertTrue(ArtifactCache.isCacheable(get("/maven2/org/example/lib/1.0/lib-1.0.jar.sha1")));
+        assertTrue(ArtifactCache.isCacheable(get("/maven2/org/example/lib/1.0/lib-1.0.pom.sha1")));
+        assertTrue(ArtifactCache.isCacheable(get("/maven2/org/example/lib/1.0/lib-1.0.module.sha1")));
+        assertFalse(ArtifactCache.isCacheable(get("/maven2/org/example/lib/maven-metadata.xml.sha1")));
+        assertFalse(ArtifactCache.isCacheable(get("/maven2/org/example/lib/1.0/maven-metadata.xml.sha1")));
+        assertFalse(ArtifactCache.isCacheable(get("/maven2/org/example/lib/1.0/lib-1.0.txt.sha1")));
+        assertFalse(ArtifactCache.isCacheable(get("/maven2/org/example/lib/1.0/lib-1.0.sha1")));
+        assertFalse(ArtifactCache.isArtifactPath("/maven2/org/example/lib/maven-metadata.xml.sha1"));
+    }
+
+    private static void store(ArtifactCache cache, String url, String body) {
+        ArtifactCache.Writer writer = cache.begin(url, "\"abc\"");
+        writer.write(Unpooled.copiedBuffer(body, StandardCharsets.UTF_8));
+        writer.commit();
+    }
+
+    private static HttpRequest get(String uri) {
+        return new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+    }
+}
@@ -0,0 +1,86 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Verifies the per-client watermarks and the global budget pause and resume a client's upstream.
+ */
+class BufferBudgetTest {
+
+    @Test
+    void pausesUpstreamAboveHighWatermarkAndResumesBelowLow() {
+        BufferBudget budget = new BufferBudget(1024, 1024 * 1024);
+        EmbeddedChannel upstream = new EmbeddedChannel();
+        EmbeddedChannel client = client(budget, upstream);
+
+        client.write(Unpooled.wrappedBuffer(new byte[1500]));
+        assertFalse(client.isWritable());
+        assertFalse(upstream.config().isAutoRead());
+        assertEquals(1500, budget.buffered());
+
+        // Flushing hands the bytes to the socket, emptying the buffer below the low watermark
+        client.flush();
+        assertTrue(client.isWritable());
+        assertTrue(upstream.config().isAutoRead());
+        assertEquals(0, budget.buffered());
+        assertEquals(0, budget.pauses.sum(), "the watermark alone is not a budget pause");
+    }
+
+    @Test
+    void pausesClientsOverTheGlobalBudgetUntilItHalves() {
+        BufferBudget budget = new BufferBudget(1024 * 1024, 2000);
+        EmbeddedChannel first = client(budget, new EmbeddedChannel());
+        EmbeddedChannel upstream = new EmbeddedChannel();
+        EmbeddedChannel second = client(budget, upstream);
+
+        first.write(Unpooled.wrappedBuffer(new byte[1500]));
+        assertTrue(first.isWritable());
+        second.write(Unpooled.wrappedBuffer(new byte[1000]));
+        assertEquals(2500, budget.buffered());
+        assertFalse(second.isWritable(), "well below its own watermark, but over the budget");
+        assertFalse(upstream.config().isAutoRead());
+        assertTrue(first.isWritable(), "only clients written to while over budget are paused");
+        assertEquals(1, budget.pauses.sum());
+
+        first.flush();
+        assertEquals(1000, budget.buffered());
+        assertTrue(second.isWritable());
+        assertTrue(upstream.config().isAutoRead());
+    }
+
+    @Test
+    void writabilityReasonsAreIndependent() {
+        BufferBudget budget = new BufferBudget(1024 * 1024, 64 * 1024 * 1024);
+        EmbeddedChannel client = client(budget, new EmbeddedChannel());
+
+        BufferBudget.setWritable(client, BufferBudget.SLOW_FOLLOWER, false);
+        assertFalse(client.isWritable());
+        BufferBudget.setWritable(client, BufferBudget.OVER_BUDGET, false);
+        BufferBudget.setWritable(client, BufferBudget.OVER_BUDGET, true);
+        assertFalse(client.isWritable(), "still held back by the slow follower");
+        BufferBudget.setWritable(client, BufferBudget.SLOW_FOLLOWER, true);
+        assertTrue(client.isWritable());
+    }
+
+    /**
+     * A client channel with the budget installed that, like LittleProxy, stops reading {@code upstream} while it is
+     * not writable.
+     */
+    private static EmbeddedChannel client(BufferBudget budget, EmbeddedChannel upstream) {
+        EmbeddedChannel client = new EmbeddedChannel(new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+                upstream.config().setAutoRead(ctx.channel().isWritable());
+                ctx.fireChannelWritabilityChanged();
+            }
+        });
+        budget.install(client);
+        return client;
+    }
+}
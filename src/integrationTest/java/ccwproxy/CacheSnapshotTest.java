@@ -0,0 +1,118 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Verifies a cache exported to a snapshot serves its entries in a new environment, and that re-exporting keeps them.
+ */
+class CacheSnapshotTest {
+
+    private static final String JAR = "https://repo1.maven.org/maven2/org/example/lib/1.0/lib-1.0.jar";
+    private static final String POM = "https://repo1.maven.org/maven2/org/example/lib/1.0/lib-1.0.pom";
+    private static final String MODULE = "https://repo1.maven.org/maven2/org/example/lib/1.0/lib-1.0.module";
+
+    private final AccessLog log = new AccessLog(new ByteArrayOutputStream(), AccessLog.Format.TEXT, 64);
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void closeLog() {
+        log.close();
+    }
+
+    @Test
+    void servesExportedEntriesFromAnEmptyCache() throws Exception {
+        ArtifactCache cache = ArtifactCache.open(tempDir.resolve("old"), 1024 * 1024, log);
+        store(cache, JAR, "jar-bytes");
+        store(cache, POM, "pom-bytes");
+        cache.begin(MODULE, null).write(Unpooled.copiedBuffer("in progress", StandardCharsets.UTF_8));
+
+        Path file = tempDir.resolve("cache.snapshot");
+        CacheSnapshot.Export export = CacheSnapshot.export(tempDir.resolve("old"), null, file);
+        assertEquals(2, export.entries());
+
+        try (CacheSnapshot snapshot = CacheSnapshot.open(file, log)) {
+            ArtifactCache fresh = ArtifactCache.open(tempDir.resolve("new"), 1024 * 1024, snapshot, log);
+            assertEquals(0, fresh.size());
+            assertTrue(fresh.contains(POM));
+            assertFalse(fresh.contains(MODULE));
+            // Not served until its body has been checked
+            assertNull(fresh.lookup(JAR));
+
+            snapshot.verifyAll();
+            FullHttpResponse response = fresh.lookup(JAR);
+            assertNotNull(response);
+            assertEquals("jar-bytes", response.content().toString(StandardCharsets.UTF_8));
+            assertEquals("\"abc\"", response.headers().get(HttpHeaderNames.ETAG));
+            assertNull(fresh.lookup(MODULE));
+            assertEquals(1, fresh.snapshotHits.sum());
+            assertEquals(2, fresh.misses.sum());
+        }
+    }
+
+    @Test
+    void reExportKeepsSnapshotEntriesAndAddsNewOnes() throws Exception {
+        store(ArtifactCache.open(tempDir.resolve("first"), 1024 * 1024, log), JAR, "jar-bytes");
+        Path file = tempDir.resolve("cache.snapshot");
+        CacheSnapshot.export(tempDir.resolve("first"), null, file);
+
+        try (CacheSnapshot previous = CacheSnapshot.open(file, log)) {
+            ArtifactCache cache = ArtifactCache.open(tempDir.resolve("second"), 1024 * 1024, previous, log);
+            store(cache, POM, "pom-bytes");
+            assertEquals(
+                    2,
+                    CacheSnapshot.export(tempDir.resolve("second"), previous, file)
+                            .entries());
+        }
+
+        try (CacheSnapshot snapshot = CacheSnapshot.open(file, log)) {
+            ArtifactCache cache = ArtifactCache.open(tempDir.resolve("third"), 1024 * 1024, snapshot, log);
+            snapshot.verifyAll();
+            assertEquals("jar-bytes", cache.lookup(JAR).content().toString(StandardCharsets.UTF_8));
+            assertEquals("pom-bytes", cache.lookup(POM).content().toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void ignoresEntryThatDoesNotMatchItsChecksum() throws Exception {
+        store(ArtifactCache.open(tempDir.resolve("cache"), 1024 * 1024, log), JAR, "jar-bytes");
+        Path file = tempDir.resolve("cache.snapshot");
+        CacheSnapshot.export(tempDir.resolve("cache"), null, file);
+
+        // Flip the first body byte, found by its content since the header length depends on the URL
+        byte[] bytes = Files.readAllBytes(file);
+        int body = new String(bytes, StandardCharsets.ISO_8859_1).indexOf("jar-bytes");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {'J'}), body);
+        }
+
+        try (CacheSnapshot snapshot = CacheSnapshot.open(file, log)) {
+            ArtifactCache cache = ArtifactCache.open(tempDir.resolve("new"), 1024 * 1024, snapshot, log);
+            assertTrue(cache.contains(JAR));
+            snapshot.verifyAll();
+            assertNull(cache.lookup(JAR));
+            assertFalse(cache.contains(JAR));
+        }
+    }
+
+    private static void store(ArtifactCache cache, String url, String body) {
+        ArtifactCache.Writer writer = cache.begin(url, "\"abc\"");
+        writer.write(Unpooled.copiedBuffer(body, StandardCharsets.UTF_8));
+        writer.commit();
+    }
+}
@@ -0,0 +1,101 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Verifies the upstream address is resolved once per TTL and survives failed refreshes.
+ */
+class CachedAddressTest {
+
+    private static final byte[] FIRST = {10, 0, 0, 1};
+    private static final byte[] SECOND = {10, 0, 0, 2};
+
+    private final AccessLog log = new AccessLog(new ByteArrayOutputStream(), AccessLog.Format.TEXT, 64);
+
+    @AfterEach
+    void closeLog() {
+        log.close();
+    }
+
+    @Test
+    void servesCachedAddressWithinTtl() {
+        AtomicInteger lookups = new AtomicInteger();
+        CachedAddress address = new CachedAddress("upstream", 3128, Duration.ofHours(1), log, host -> {
+            lookups.incrementAndGet();
+            return InetAddress.getByAddress(host, FIRST);
+        });
+
+        for (int i = 0; i < 100; i++) {
+            assertArrayEquals(FIRST, address.get().getAddress().getAddress());
+        }
+        assertEquals(3128, address.get().getPort());
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    void refreshesInBackgroundAfterTtl() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        CachedAddress address = new CachedAddress("upstream", 3128, Duration.ZERO, log, host -> {
+            if (lookups.getAndIncrement() == 0) {
+                return InetAddress.getByAddress(host, FIRST);
+            }
+            awaitUninterruptibly(release);
+            return InetAddress.getByAddress(host, SECOND);
+        });
+
+        assertArrayEquals(FIRST, address.get().getAddress().getAddress(), "stale address served while refreshing");
+        assertArrayEquals(FIRST, address.get().getAddress().getAddress());
+        release.countDown();
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!Arrays.equals(SECOND, address.get().getAddress().getAddress())) {
+            assertTrue(System.nanoTime() < deadline, "address was not refreshed");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void keepsLastGoodAddressWhenLookupFails() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        CachedAddress address = new CachedAddress("upstream", 3128, Duration.ZERO, log, host -> {
+            if (lookups.getAndIncrement() > 0) {
+                throw new UnknownHostException(host);
+            }
+            return InetAddress.getByAddress(host, FIRST);
+        });
+
+        for (int i = 0; i < 20; i++) {
+            assertArrayEquals(FIRST, address.get().getAddress().getAddress());
+            Thread.sleep(5);
+        }
+        assertTrue(lookups.get() > 1);
+    }
+
+    @Test
+    void fallsBackToUnresolvedAddressWhenFirstLookupFails() {
+        CachedAddress address = new CachedAddress("upstream", 3128, Duration.ofHours(1), log, host -> {
+            throw new UnknownHostException(host);
+        });
+
+        assertTrue(address.get().isUnresolved());
+        assertEquals("upstream", address.get().getHostString());
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Verifies the local CA persists across restarts and mints per-host leaf certificates.
+ */
+class CertificateAuthorityTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void reloadsPersistedAuthority() throws Exception {
+        CertificateAuthority created = CertificateAuthority.loadOrCreate(tempDir);
+        assertTrue(Files.exists(tempDir.resolve(CertificateAuthority.CA_KEYSTORE)));
+        assertTrue(Files.readString(tempDir.resolve(CertificateAuthority.CA_CERTIFICATE))
+                .startsWith("-----BEGIN CERTIFICATE-----"));
+
+        CertificateAuthority reloaded = CertificateAuthority.loadOrCreate(tempDir);
+        assertEquals(created.certificate(), reloaded.certificate());
+    }
+
+    @Test
+    void keepsTheKeyFromOtherUsers() throws Exception {
+        assumeTrue(tempDir.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        Path dir = tempDir.resolve("ca");
+        CertificateAuthority.loadOrCreate(dir);
+
+        assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(dir)));
+        assertEquals(
+                "rw-------",
+                PosixFilePermissions.toString(
+                        Files.getPosixFilePermissions(dir.resolve(CertificateAuthority.CA_KEYSTORE))));
+        assertFalse(Files.exists(dir.resolve(CertificateAuthority.CA_KEYSTORE + ".tmp")));
+    }
+
+    @Test
+    void mintsLeafSignedByAuthorityOncePerHost() throws Exception {
+        CertificateAuthority ca = CertificateAuthority.loadOrCreate(tempDir);
+
+        SSLContext context = ca.contextFor("repo1.maven.org");
+        assertSame(context, ca.contextFor("repo1.maven.org"));
+
+        X509Certificate leaf = leafOf(context, ca.certificate(), "repo1.maven.org");
+        leaf.verify(ca.certificate().getPublicKey());
+        assertEquals(List.of(List.of(2, "repo1.maven.org")), List.copyOf(leaf.getSubjectAlternativeNames()));
+    }
+
+    @Test
+    void mintsIpAddressNamesForLiterals() throws Exception {
+        CertificateAuthority ca = CertificateAuthority.loadOrCreate(tempDir);
+
+        assertEquals(
+                List.of(List.of(7, "127.0.0.1")),
+                List.copyOf(ca.mintLeaf("127.0.0.1").getSubjectAlternativeNames()));
+        assertEquals(
+                List.of(List.of(7, "0:0:0:0:0:0:0:1")),
+                List.copyOf(ca.mintLeaf("[::1]").getSubjectAlternativeNames()));
+        assertEquals(
+                List.of(List.of(2, "1.2.3.example.com")),
+                List.copyOf(ca.mintLeaf("1.2.3.example.com").getSubjectAlternativeNames()));
+    }
+
+    @Test
+    void interceptsOnlyListedHosts() throws Exception {
+        InterceptingMitmManager mitm =
+                new InterceptingMitmManager(CertificateAuthority.loadOrCreate(tempDir), Set.of("repo1.maven.org"));
+
+        assertTrue(mitm.intercepts("repo1.maven.org:443"));
+        assertTrue(mitm.intercepts("REPO1.maven.org:443"));
+        assertFalse(mitm.intercepts("github.com:443"));
+        assertFalse(mitm.intercepts("maven.org:443"));
+    }
+
+    /**
+     * Completes a handshake against {@code context} with a client that trusts only the CA and verifies the hostname.
+     */
+    private static X509Certificate leafOf(SSLContext context, X509Certificate caCertificate, String host)
+            throws Exception {
+        KeyStore truststore = KeyStore.getInstance("PKCS12");
+        truststore.load(null, null);
+        truststore.setCertificateEntry("ca", caCertificate);
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(truststore);
+        SSLContext clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, tmf.getTrustManagers(), null);
+
+        try (SSLServerSocket server = (SSLServerSocket)
+                context.getServerSocketFactory().createServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            CompletableFuture<Void> accepted = CompletableFuture.runAsync(() -> {
+                try (SSLSocket socket = (SSLSocket) server.accept()) {
+                    socket.startHandshake();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            try (SSLSocket client = (SSLSocket) clientContext
+                    .getSocketFactory()
+                    .createSocket(InetAddress.getLoopbackAddress(), server.getLocalPort())) {
+                SSLParameters parameters = client.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                parameters.setServerNames(List.of(new SNIHostName(host)));
+                client.setSSLParameters(parameters);
+                client.startHandshake();
+                accepted.get(10, TimeUnit.SECONDS);
+                return (X509Certificate) client.getSession().getPeerCertificates()[0];
+            }
+        }
+    }
+}
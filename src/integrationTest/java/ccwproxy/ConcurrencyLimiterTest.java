@@ -0,0 +1,114 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Verifies requests over a host's limit wait their turn and that the limit reacts to throttling.
+ */
+class ConcurrencyLimiterTest {
+
+    private static final String HOST = "repo1.maven.org";
+
+    @Test
+    void queuedRequestIsFedBackWhenPermitIsReleased() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 4, 8);
+        EmbeddedChannel first = channel(new ArrayList<>());
+        ConcurrencyLimiter.Gate firstGate = ConcurrencyLimiter.gate(first);
+        assertEquals(ConcurrencyLimiter.Admission.ADMITTED, limiter.acquire(HOST, firstGate, get()));
+
+        List<Object> received = new ArrayList<>();
+        EmbeddedChannel second = channel(received);
+        ConcurrencyLimiter.Gate secondGate = ConcurrencyLimiter.gate(second);
+        HttpRequest waiting = get();
+        assertEquals(ConcurrencyLimiter.Admission.QUEUED, limiter.acquire(HOST, secondGate, waiting));
+        assertFalse(second.config().isAutoRead());
+
+        // The rest of the request arrives after it was parked and waits with it
+        second.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+        assertTrue(received.isEmpty());
+        assertEquals(1, limiter.hosts().get(HOST).queued());
+
+        firstGate.release();
+        second.runPendingTasks();
+
+        assertEquals(List.of(waiting, LastHttpContent.EMPTY_LAST_CONTENT), received);
+        assertTrue(second.config().isAutoRead());
+        assertTrue(ConcurrencyLimiter.isResuming(second));
+        assertNotNull(secondGate.takeGranted());
+        assertEquals(1, limiter.hosts().get(HOST).inFlight());
+        assertEquals(0, limiter.hosts().get(HOST).queued());
+
+        second.close();
+        assertEquals(0, limiter.hosts().get(HOST).inFlight(), "closing the connection frees its permit");
+    }
+
+    @Test
+    void rejectsWhenQueueIsFull() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 4, 1);
+        assertEquals(ConcurrencyLimiter.Admission.ADMITTED, acquire(limiter));
+        assertEquals(ConcurrencyLimiter.Admission.QUEUED, acquire(limiter));
+        assertEquals(ConcurrencyLimiter.Admission.REJECTED, acquire(limiter));
+        assertEquals(1, limiter.rejected.sum());
+    }
+
+    @Test
+    void throttlingCutsTheLimitOncePerRound() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 20, 8);
+        ConcurrencyLimiter.Gate early = ConcurrencyLimiter.gate(channel(new ArrayList<>()));
+        ConcurrencyLimiter.Gate late = ConcurrencyLimiter.gate(channel(new ArrayList<>()));
+        limiter.acquire(HOST, early, get());
+        limiter.acquire(HOST, late, get());
+
+        late.current().onResponse(429);
+        assertEquals(7, limiter.hosts().get(HOST).limit());
+
+        // Sent before the cut, so it does not cut again
+        early.current().onResponse(503);
+        assertEquals(7, limiter.hosts().get(HOST).limit());
+
+        ConcurrencyLimiter.Gate next = ConcurrencyLimiter.gate(channel(new ArrayList<>()));
+        limiter.acquire(HOST, next, get());
+        next.current().onFailure();
+        assertEquals(4, limiter.hosts().get(HOST).limit());
+    }
+
+    @Test
+    void onlyKeepAliveGetsAndHeadsAreLimited() {
+        assertTrue(ConcurrencyLimiter.isLimited(get()));
+        assertTrue(ConcurrencyLimiter.isLimited(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.HEAD, "/")));
+        assertFalse(ConcurrencyLimiter.isLimited(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/")));
+        assertFalse(ConcurrencyLimiter.isLimited(new DefaultHttpRequest(HttpVersion.HTTP_1_0, HttpMethod.GET, "/")));
+    }
+
+    private static ConcurrencyLimiter.Admission acquire(ConcurrencyLimiter limiter) {
+        return limiter.acquire(HOST, ConcurrencyLimiter.gate(channel(new ArrayList<>())), get());
+    }
+
+    private static HttpRequest get() {
+        return new DefaultHttpRequest(
+                HttpVersion.HTTP_1_1, HttpMethod.GET, "https://" + HOST + "/maven2/org/example/lib/1.0/lib-1.0.jar");
+    }
+
+    private static EmbeddedChannel channel(List<Object> received) {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        channel.pipeline().addLast("handler", new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                received.add(msg);
+            }
+        });
+        return channel;
+    }
+}
@@ -0,0 +1,55 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Verifies the config file watcher reports each change once, including a touch, a deletion and a re-creation.
+ */
+class ConfigWatcherTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void reportsEachChangeOnce() throws Exception {
+        Path file = dir.resolve("proxy.env");
+        Files.writeString(file, "CCW_PROXY_VERBOSE=true\n");
+        ConfigWatcher watcher = new ConfigWatcher(file, Duration.ofSeconds(2));
+        assertFalse(watcher.changed());
+
+        Files.writeString(file, "CCW_PROXY_VERBOSE=false\n");
+        assertTrue(watcher.changed());
+        assertFalse(watcher.changed());
+
+        // What `touch` does: same size, later modification time
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+        assertTrue(watcher.changed());
+
+        Files.delete(file);
+        assertTrue(watcher.changed());
+        assertFalse(watcher.changed());
+        Files.writeString(file, "CCW_PROXY_VERBOSE=true\n");
+        assertTrue(watcher.changed());
+    }
+
+    @Test
+    void runsCallbackUntilClosed() throws Exception {
+        Path file = dir.resolve("proxy.env");
+        Files.writeString(file, "CCW_PROXY_VERBOSE=true\n");
+        CountDownLatch reloaded = new CountDownLatch(1);
+        try (ConfigWatcher watcher = new ConfigWatcher(file, Duration.ofMillis(10))) {
+            watcher.start(reloaded::countDown);
+            Files.writeString(file, "CCW_PROXY_VERBOSE=false\n");
+            assertTrue(reloaded.await(10, TimeUnit.SECONDS));
+        }
+    }
+}
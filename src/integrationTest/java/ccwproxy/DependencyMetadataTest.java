@@ -0,0 +1,168 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Verifies only coordinates a build will certainly need are taken from POMs and module files.
+ */
+class DependencyMetadataTest {
+
+    private static final String POM = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <project>
+              <!-- do_not_remove: published-with-gradle-metadata -->
+              <parent>
+                <groupId>org.example</groupId>
+                <artifactId>parent</artifactId>
+                <version>7</version>
+              </parent>
+              <artifactId>lib</artifactId>
+              <version>1.0</version>
+              <properties>
+                <guava.version>33.0.0-jre</guava.version>
+              </properties>
+              <dependencyManagement>
+                <dependencies>
+                  <dependency>
+                    <groupId>org.example</groupId>
+                    <artifactId>bom</artifactId>
+                    <version>2.1</version>
+                    <type>pom</type>
+                    <scope>import</scope>
+                  </dependency>
+                  <dependency>
+                    <groupId>org.slf4j</groupId>
+                    <artifactId>slf4j-api</artifactId>
+                    <version>2.0.9</version>
+                  </dependency>
+                </dependencies>
+              </dependencyManagement>
+              <dependencies>
+                <dependency>
+                  <groupId>com.google.guava</groupId>
+                  <artifactId>guava</artifactId>
+                  <version>${guava.version}</version>
+                  <exclusions>
+                    <exclusion>
+                      <groupId>com.google.code.findbugs</groupId>
+                      <artifactId>jsr305</artifactId>
+                    </exclusion>
+                  </exclusions>
+                </dependency>
+                <dependency>
+                  <groupId>org.slf4j</groupId>
+                  <artifactId>slf4j-api</artifactId>
+                </dependency>
+                <dependency>
+                  <groupId>org.example</groupId>
+                  <artifactId>from-bom</artifactId>
+                </dependency>
+                <dependency>
+                  <groupId>org.junit.jupiter</groupId>
+                  <artifactId>junit-jupiter</artifactId>
+                  <version>5.10.0</version>
+                  <scope>test</scope>
+                </dependency>
+                <dependency>
+                  <groupId>org.example</groupId>
+                  <artifactId>optional</artifactId>
+                  <version>1.0</version>
+                  <optional>true</optional>
+                </dependency>
+                <dependency>
+                  <groupId>org.example</groupId>
+                  <artifactId>ranged</artifactId>
+                  <version>[1.0,2.0)</version>
+                </dependency>
+              </dependencies>
+            </project>
+            """;
+
+    private static final String MODULE = """
+            {
+              "formatVersion": "1.1",
+              "component": {"group": "org.example", "module": "kmp", "version": "1.0"},
+              "variants": [
+                {
+                  "name": "jvmApiElements",
+                  "attributes": {"org.gradle.usage": "java-api"},
+                  "available-at": {"url": "../../kmp-jvm/1.0/kmp-jvm-1.0.module",
+                                   "group": "org.example", "module": "kmp-jvm", "version": "1.0"}
+                },
+                {
+                  "name": "runtimeElements",
+                  "attributes": {"org.gradle.usage": "java-runtime"},
+                  "dependencies": [
+                    {"group": "org.slf4j", "module": "slf4j-api", "version": {"requires": "2.0.9"}},
+                    {"group": "org.example", "module": "dynamic", "version": {"requires": "1.+"}}
+                  ]
+                },
+                {
+                  "name": "jsApiElements",
+                  "attributes": {"org.gradle.usage": "kotlin-api"},
+                  "dependencies": [{"group": "org.example", "module": "js-only", "version": {"requires": "1.0"}}]
+                }
+              ]
+            }
+            """;
+
+    @Test
+    void pomYieldsParentBomsAndCertainDependencies() {
+        DependencyMetadata metadata = DependencyMetadata.fromPom(bytes(POM), bytes(POM).length);
+
+        assertEquals(new DependencyMetadata.Coordinates("org.example", "lib", "1.0"), metadata.component);
+        assertEquals("jar", metadata.packaging);
+        assertTrue(metadata.gradleMetadata);
+        assertEquals(
+                List.of(
+                        new DependencyMetadata.Coordinates("org.example", "parent", "7"),
+                        new DependencyMetadata.Coordinates("org.example", "bom", "2.1")),
+                metadata.boms);
+        // Versions managed by the BOM or the parent are only known once those are parsed
+        assertEquals(
+                List.of(
+                        new DependencyMetadata.Coordinates("com.google.guava", "guava", "33.0.0-jre"),
+                        new DependencyMetadata.Coordinates("org.slf4j", "slf4j-api", "2.0.9")),
+                metadata.dependencies);
+        assertEquals("org/example/lib/1.0/lib-1.0.pom", metadata.component.path("pom"));
+    }
+
+    @Test
+    void moduleYieldsJavaVariantsOnly() {
+        DependencyMetadata metadata = DependencyMetadata.fromModule(bytes(MODULE), bytes(MODULE).length);
+
+        assertEquals(new DependencyMetadata.Coordinates("org.example", "kmp", "1.0"), metadata.component);
+        assertEquals(List.of(new DependencyMetadata.Coordinates("org.example", "kmp-jvm", "1.0")), metadata.redirects);
+        assertEquals(
+                List.of(new DependencyMetadata.Coordinates("org.slf4j", "slf4j-api", "2.0.9")), metadata.dependencies);
+    }
+
+    @Test
+    void rejectsMalformedFilesAndExternalEntities() {
+        byte[] truncated = bytes(POM.substring(0, POM.length() / 2));
+        assertThrows(IllegalArgumentException.class, () -> DependencyMetadata.fromPom(truncated, truncated.length));
+        byte[] json = bytes(MODULE.substring(0, MODULE.length() / 2));
+        assertThrows(IllegalArgumentException.class, () -> DependencyMetadata.fromModule(json, json.length));
+
+        byte[] entity = bytes("""
+                <?xml version="1.0"?>
+                <!DOCTYPE project [<!ENTITY v SYSTEM "file:///etc/hostname">]>
+                <project><groupId>g</groupId><artifactId>a</artifactId><version>&v;</version></project>
+                """);
+        DependencyMetadata metadata;
+        try {
+            metadata = DependencyMetadata.fromPom(entity, entity.length);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        assertNull(metadata.component, "entity must not be resolved");
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,96 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Verifies the prefetcher fetches what a POM refers to once, and again after a failed fetch.
+ */
+class DependencyPrefetcherTest {
+
+    private static final String REPOSITORY = "https://repo1.maven.org/maven2/";
+    private static final String APP = REPOSITORY + "org/example/app/1.0/app-1.0.pom";
+    private static final String LIB = REPOSITORY + "org/example/lib/2.0/lib-2.0.pom";
+    private static final byte[] APP_POM = """
+            <project>
+              <groupId>org.example</groupId>
+              <artifactId>app</artifactId>
+              <version>1.0</version>
+              <packaging>pom</packaging>
+              <dependencies>
+                <dependency>
+                  <groupId>org.example</groupId>
+                  <artifactId>lib</artifactId>
+                  <version>2.0</version>
+                </dependency>
+              </dependencies>
+            </project>
+            """.getBytes(StandardCharsets.UTF_8);
+
+    private final AccessLog log = new AccessLog(new ByteArrayOutputStream(), AccessLog.Format.TEXT, 64);
+    private final BlockingQueue<String> requested = new LinkedBlockingQueue<>();
+    private DependencyPrefetcher prefetcher;
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void stop() {
+        if (prefetcher != null) {
+            prefetcher.close();
+        }
+        log.close();
+    }
+
+    @Test
+    void fetchesEachReferencedFileOnce() throws Exception {
+        prefetcher = new DependencyPrefetcher(ArtifactCache.open(tempDir, 1024 * 1024, log), 1);
+        prefetcher.start(requested::add);
+
+        prefetcher.observe(APP, APP_POM, APP_POM.length);
+        assertEquals(LIB, requested.poll(10, TimeUnit.SECONDS));
+        prefetcher.observe(APP, APP_POM, APP_POM.length);
+        assertNull(requested.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, prefetcher.fetched.sum());
+    }
+
+    @Test
+    void fetchesAgainAfterAFailure() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        prefetcher = new DependencyPrefetcher(ArtifactCache.open(tempDir, 1024 * 1024, log), 1);
+        prefetcher.start(url -> {
+            requested.add(url);
+            if (attempts.getAndIncrement() == 0) {
+                throw new IOException("HTTP 502");
+            }
+        });
+
+        prefetcher.observe(APP, APP_POM, APP_POM.length);
+        assertEquals(LIB, requested.poll(10, TimeUnit.SECONDS));
+        awaitUntil(() -> prefetcher.failed.sum() == 1);
+
+        prefetcher.observe(APP, APP_POM, APP_POM.length);
+        assertEquals(LIB, requested.poll(10, TimeUnit.SECONDS));
+        awaitUntil(() -> prefetcher.fetched.sum() == 1);
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+    }
+}
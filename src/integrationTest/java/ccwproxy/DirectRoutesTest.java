@@ -0,0 +1,71 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Verifies {@code NO_PROXY}-style patterns match names on label boundaries and IP literals by CIDR block.
+ */
+class DirectRoutesTest {
+
+    @Test
+    void namesMatchThemselvesAndSubdomains() {
+        DirectRoutes routes =
+                DirectRoutes.compile(List.of("localhost", ".corp.example", "*.svc.cluster.local", "mirror:8081"));
+
+        assertTrue(routes.isDirect("localhost"));
+        assertTrue(routes.isDirect("LOCALHOST:8080"));
+        assertTrue(routes.isDirect("corp.example"));
+        assertTrue(routes.isDirect("nexus.corp.example."));
+        assertTrue(routes.isDirect("api.svc.cluster.local"));
+        assertTrue(routes.isDirect("mirror"));
+
+        assertFalse(routes.isDirect("notlocalhost"));
+        assertFalse(routes.isDirect("corp.example.com"));
+        assertFalse(routes.isDirect("repo1.maven.org"));
+    }
+
+    @Test
+    void ipLiteralsMatchCidrBlocks() {
+        DirectRoutes routes = DirectRoutes.compile(List.of("127.0.0.1", "10.0.0.0/8", "fd00::/8", "[::1]"));
+
+        assertTrue(routes.isDirect("127.0.0.1:15080"));
+        assertTrue(routes.isDirect("10.255.3.4"));
+        assertTrue(routes.isDirect("[fd12::1]:443"));
+        assertTrue(routes.isDirect("::1"));
+
+        assertFalse(routes.isDirect("127.0.0.2"));
+        assertFalse(routes.isDirect("11.0.0.1"));
+        assertFalse(routes.isDirect("[fe80::1]:443"));
+        // Names are not resolved to decide
+        assertFalse(routes.isDirect("localhost"));
+        assertThrows(IllegalArgumentException.class, () -> DirectRoutes.compile(List.of("10.0.0.0/33")));
+    }
+
+    @Test
+    void requestsAreRoutedByTheirDestination() {
+        DirectRoutes routes = DirectRoutes.compile(List.of("internal.example", "192.168.0.0/16"));
+
+        assertTrue(routes.isDirect(request(HttpMethod.CONNECT, "internal.example:443")));
+        assertTrue(routes.isDirect(request(HttpMethod.GET, "http://user@192.168.1.10:8081/repo/a.pom")));
+        HttpRequest intercepted = request(HttpMethod.GET, "/repo/a.pom");
+        intercepted.headers().set(HttpHeaderNames.HOST, "internal.example");
+        assertTrue(routes.isDirect(intercepted));
+
+        assertFalse(routes.isDirect(request(HttpMethod.CONNECT, "repo1.maven.org:443")));
+        assertFalse(routes.isDirect(request(HttpMethod.GET, "http://example.org/?next=internal.example")));
+        assertTrue(DirectRoutes.compile(List.of(" ", "")).isEmpty());
+        assertTrue(DirectRoutes.compile(List.of("*")).isDirect(request(HttpMethod.CONNECT, "anything:443")));
+    }
+
+    private static HttpRequest request(HttpMethod method, String uri) {
+        return new DefaultHttpRequest(HttpVersion.HTTP_1_1, method, uri);
+    }
+}
@@ -0,0 +1,55 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Verifies histogram bucket boundaries and percentile accuracy.
+ */
+class LatencyHistogramTest {
+
+    @Test
+    void bucketsCoverEveryValueExactlyOnce() {
+        long previousHighest = -1;
+        for (int index = 0; index < 400; index++) {
+            long highest = LatencyHistogram.highestValueOf(index);
+            assertEquals(index, LatencyHistogram.indexOf(previousHighest + 1), "lowest value of bucket " + index);
+            assertEquals(index, LatencyHistogram.indexOf(highest), "highest value of bucket " + index);
+            previousHighest = highest;
+        }
+    }
+
+    @Test
+    void percentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1ms to 10s, one value per millisecond
+        for (long millis = 1; millis <= 10_000; millis++) {
+            histogram.recordNanos(millis * 1_000_000);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(10_000, snapshot.count);
+        assertWithin(5_000_000, snapshot.percentileMicros(0.5));
+        assertWithin(9_900_000, snapshot.percentileMicros(0.99));
+        assertWithin(9_990_000, snapshot.percentileMicros(0.999));
+        assertEquals(50_005_000_000L, snapshot.sumMicros);
+    }
+
+    @Test
+    void emptyAndOutOfRangeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.snapshot().percentileMicros(0.99));
+
+        histogram.recordMicros(-5);
+        histogram.recordMicros(Long.MAX_VALUE);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.percentileMicros(0.5));
+        assertTrue(snapshot.percentileMicros(1.0) > 0);
+    }
+
+    private static void assertWithin(long expectedMicros, long actualMicros) {
+        double error = Math.abs(actualMicros - expectedMicros) / (double) expectedMicros;
+        assertTrue(error <= 0.0625, "expected ~" + expectedMicros + " but was " + actualMicros);
+    }
+}
@@ -0,0 +1,85 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Verifies the classes the native image initializes at build time exist and hold only constants, so that nothing of
+ * the build machine ends up in the image.
+ */
+class NativeImageConfigTest {
+
+    private static final String PROPERTIES = "META-INF/native-image/ccwproxy/native-image.properties";
+    private static final String BUILD_TIME = "--initialize-at-build-time=";
+
+    @Test
+    void buildTimeClassesHoldOnlyConstants() throws Exception {
+        List<String> classes = buildTimeClasses();
+        assertFalse(classes.isEmpty());
+        for (String name : classes) {
+            Class<?> type = Class.forName(name, true, getClass().getClassLoader());
+            for (Field field : type.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                String description = name + "." + field.getName();
+                assertTrue(Modifier.isFinal(field.getModifiers()), description + " is final");
+                field.setAccessible(true);
+                assertConstant(description, field.get(null));
+            }
+        }
+    }
+
+    private static List<String> buildTimeClasses() throws Exception {
+        Properties properties = new Properties();
+        try (InputStream in = NativeImageConfigTest.class.getClassLoader().getResourceAsStream(PROPERTIES)) {
+            assertNotNull(in, PROPERTIES);
+            properties.load(in);
+        }
+        List<String> classes = new ArrayList<>();
+        for (String arg : properties.getProperty("Args", "").trim().split("\\s+")) {
+            if (arg.startsWith(BUILD_TIME)) {
+                classes.addAll(List.of(arg.substring(BUILD_TIME.length()).split(",")));
+            }
+        }
+        return classes;
+    }
+
+    private static void assertConstant(String description, Object value) {
+        if (value == null
+                || value instanceof Number
+                || value instanceof Boolean
+                || value instanceof Character
+                || value instanceof String
+                || value instanceof Duration
+                || value instanceof Enum) {
+            return;
+        }
+        if (value.getClass().isArray()) {
+            if (!value.getClass().getComponentType().isPrimitive()) {
+                for (int i = 0; i < Array.getLength(value); i++) {
+                    assertConstant(description, Array.get(value, i));
+                }
+            }
+            return;
+        }
+        if (value instanceof Collection<?> collection) {
+            assertThrows(UnsupportedOperationException.class, collection::clear, description + " is immutable");
+            for (Object element : collection) {
+                assertConstant(description, element);
+            }
+            return;
+        }
+        fail(description + " holds a " + value.getClass().getName());
+    }
+}
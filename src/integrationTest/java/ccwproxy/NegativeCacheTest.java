@@ -0,0 +1,87 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Verifies misses are remembered for the TTL only, and that the table stays bounded.
+ */
+class NegativeCacheTest {
+
+    private static final String POM = "https://repo1.maven.org/maven2/org/example/lib/1.0/lib-1.0.pom";
+
+    @Test
+    void remembersMissUntilTtlExpires() {
+        AtomicLong now = new AtomicLong();
+        NegativeCache cache = new NegativeCache(Duration.ofSeconds(30), 64, now::get);
+        long key = NegativeCache.keyOf(request(HttpMethod.GET, POM));
+
+        assertEquals(0, cache.statusOf(key));
+        cache.put(key, 404);
+        now.addAndGet(Duration.ofSeconds(29).toNanos());
+        assertEquals(404, cache.statusOf(key));
+        now.addAndGet(Duration.ofSeconds(2).toNanos());
+        assertEquals(0, cache.statusOf(key));
+        assertEquals(1, cache.hits.sum());
+    }
+
+    @Test
+    void replaysTheStatusTheRepositoryGave() {
+        NegativeCache cache = new NegativeCache(Duration.ofSeconds(30), 64);
+        long key = NegativeCache.keyOf(request(HttpMethod.HEAD, POM));
+        cache.put(key, 410);
+
+        assertEquals(410, cache.statusOf(key));
+        assertEquals(410, NegativeCache.answer(cache.statusOf(key)).status().code());
+    }
+
+    @Test
+    void onlyRepositoryFilesAreCacheable() {
+        assertTrue(NegativeCache.isCacheable(request(HttpMethod.GET, POM)));
+        assertTrue(NegativeCache.isCacheable(request(HttpMethod.HEAD, POM.replace(".pom", ".jar"))));
+        assertFalse(NegativeCache.isCacheable(request(HttpMethod.POST, POM)));
+        assertFalse(NegativeCache.isCacheable(request(HttpMethod.GET, "https://api.example.com/v1/builds/42")));
+        assertFalse(NegativeCache.isCacheable(request(HttpMethod.GET, POM + "?token=abc")));
+        assertFalse(NegativeCache.isCacheable(
+                request(HttpMethod.GET, POM.substring(0, POM.lastIndexOf('/')) + "/maven-metadata.xml.sha1")));
+    }
+
+    @Test
+    void keysDependOnMethodAndAbsoluteUrl() {
+        long get = NegativeCache.keyOf(request(HttpMethod.GET, POM));
+        assertEquals(get, NegativeCache.keyOf(request(HttpMethod.GET, POM)));
+        assertNotEquals(get, NegativeCache.keyOf(request(HttpMethod.HEAD, POM)));
+        assertNotEquals(get, NegativeCache.keyOf(request(HttpMethod.GET, POM.replace("1.0", "1.1"))));
+
+        // An intercepted request carries only a path; it is keyed like the absolute URL
+        HttpRequest intercepted = request(HttpMethod.GET, "/maven2/org/example/lib/1.0/lib-1.0.pom");
+        intercepted.headers().set(HttpHeaderNames.HOST, "repo1.maven.org");
+        assertEquals(get, NegativeCache.keyOf(intercepted));
+    }
+
+    @Test
+    void fullTableEvictsEntriesClosestToExpiry() {
+        AtomicLong now = new AtomicLong();
+        NegativeCache cache = new NegativeCache(Duration.ofSeconds(30), 16, now::get);
+        long first = NegativeCache.keyOf(request(HttpMethod.GET, POM));
+        cache.put(first, 404);
+        for (int i = 0; i < 1000; i++) {
+            now.addAndGet(1);
+            cache.put(NegativeCache.keyOf(request(HttpMethod.GET, POM + i)), 404);
+        }
+        assertEquals(0, cache.statusOf(first), "oldest entry made room");
+        assertEquals(404, cache.statusOf(NegativeCache.keyOf(request(HttpMethod.GET, POM + 999))));
+    }
+
+    private static HttpRequest request(HttpMethod method, String uri) {
+        return new DefaultHttpRequest(HttpVersion.HTTP_1_1, method, uri);
+    }
+}
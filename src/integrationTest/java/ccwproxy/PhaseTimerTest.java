@@ -0,0 +1,52 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Verifies a timer filled in on two threads, as the client's and the server's event loops do, is seen complete by a
+ * third.
+ */
+class PhaseTimerTest {
+
+    @Test
+    void phasesRecordedOnTwoThreadsAreVisibleToTheReporter() throws Exception {
+        for (int i = 0; i < 1_000; i++) {
+            PhaseTimer timer = new PhaseTimer(1, false);
+            Thread client = new Thread(() -> {
+                timer.resolveStart = 2;
+                timer.resolveEnd = 3;
+                timer.connectStart = 4;
+                timer.connected = 5;
+                timer.requestSent = 6;
+            });
+            Thread server = new Thread(() -> {
+                while (timer.requestSent == 0) {
+                    Thread.onSpinWait();
+                }
+                timer.firstByte = 10;
+                timer.bytesDown += 512;
+                timer.bytesDown += 512;
+                timer.completed = 20;
+            });
+            server.start();
+            client.start();
+
+            // Read as the reporter does, without joining either thread
+            while (timer.completed == 0) {
+                Thread.onSpinWait();
+            }
+            assertEquals(1, timer.nanos(PhaseTimer.Phase.DNS));
+            assertEquals(1, timer.nanos(PhaseTimer.Phase.CONNECT));
+            assertEquals(-1, timer.nanos(PhaseTimer.Phase.HANDSHAKE));
+            assertEquals(4, timer.nanos(PhaseTimer.Phase.WAIT));
+            assertEquals(10, timer.nanos(PhaseTimer.Phase.TRANSFER));
+            assertEquals(9, timer.latencyNanos());
+            assertEquals(1024, timer.bytesDown);
+
+            client.join();
+            server.join();
+        }
+    }
+}
@@ -77,10 +77,12 @@ class ProxyIntegrationTest {
                         "HTTPS_PROXY",
                         String.format("http://%s:%s@127.0.0.1:%d", TEST_USERNAME, TEST_PASSWORD, upstreamPort));
         pb.environment().put("PROXY_SHIM_LISTEN", "127.0.0.1:" + ccwProxyPort);
+        Path readyFile = tempDir.resolve("ccw-proxy.ready");
+        pb.environment().put("CCW_PROXY_READY_FILE", readyFile.toString());
 
         ccwProxyProcess = pb.start();
 
-        // Wait for ccw-proxy to be ready by watching for "listening on" message
+        // Wait for ccw-proxy to write its ready file, keeping its output for diagnostics
         BufferedReader reader = new BufferedReader(new InputStreamReader(ccwProxyProcess.getInputStream()));
         long startTime = System.currentTimeMillis();
         long timeout = 60_000; // 60 seconds for Gradle to start the app
@@ -91,10 +93,10 @@ class ProxyIntegrationTest {
                 String line = reader.readLine();
                 if (line != null) {
                     output.append(line).append("\n");
-                    if (line.contains("[ccw-proxy] listening on")) {
-                        return; // Ready!
-                    }
                 }
+            } else if (Files.exists(readyFile)) {
+                assertTrue(Files.readString(readyFile).endsWith(" 127.0.0.1:" + ccwProxyPort + "\n"));
+                return; // Ready!
             } else {
                 Thread.sleep(100);
             }
@@ -0,0 +1,71 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+
+/**
+ * Verifies the listener moves to another address and drains, while waiting for open connections to close.
+ */
+class ProxyListenerTest {
+
+    private static final InetAddress LOOPBACK = InetAddress.getLoopbackAddress();
+
+    private ProxyListener listener;
+
+    @BeforeEach
+    void start() throws IOException {
+        ReusePortServerGroup serverGroup = new ReusePortServerGroup(1);
+        listener = ProxyListener.start(
+                serverGroup,
+                DefaultHttpProxyServer.bootstrap().withServerGroup(serverGroup),
+                new InetSocketAddress(LOOPBACK, 0));
+    }
+
+    @AfterEach
+    void stop() {
+        listener.stop();
+    }
+
+    @Test
+    void movesToAnotherAddress() throws IOException {
+        int previous = listener.address().getPort();
+        listener.move(new InetSocketAddress(LOOPBACK, 0));
+        int moved = listener.address().getPort();
+
+        assertNotEquals(previous, moved);
+        connect(moved);
+        assertThrows(ConnectException.class, () -> connect(previous));
+    }
+
+    @Test
+    void drainStopsAcceptingAndWaitsForOpenConnections() throws IOException {
+        int port = listener.address().getPort();
+        AtomicLong open = new AtomicLong(2);
+        assertTrue(listener.accepting());
+
+        assertEquals(2, listener.drain(Duration.ofMillis(200), open::get), "timed out with both still open");
+        assertFalse(listener.accepting());
+        assertThrows(ConnectException.class, () -> connect(port));
+        assertThrows(IllegalStateException.class, () -> listener.move(new InetSocketAddress(LOOPBACK, 0)));
+
+        open.set(0);
+        assertEquals(0, listener.drain(Duration.ofSeconds(10), open::get));
+    }
+
+    private static void connect(int port) throws IOException {
+        try (Socket socket = new Socket(LOOPBACK, port)) {
+            assertTrue(socket.isConnected());
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Verifies the ready file names the process and address, and is only removed by the process that wrote it.
+ */
+class ReadyFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void recordsProcessAndAddress() throws Exception {
+        Path file = dir.resolve("ccw-proxy.ready");
+        ReadyFile ready = new ReadyFile(file, 1234);
+
+        ready.write("127.0.0.1", 15080);
+        assertEquals("1234 127.0.0.1:15080\n", Files.readString(file));
+        ready.write("127.0.0.1", 15090);
+        assertEquals("1234 127.0.0.1:15090\n", Files.readString(file));
+        try (var files = Files.list(dir)) {
+            assertEquals(1, files.count(), "no temporary file left behind");
+        }
+
+        ready.delete();
+        assertFalse(Files.exists(file));
+        ready.delete();
+    }
+
+    @Test
+    void leavesTheFileOfAReplacement() throws Exception {
+        Path file = dir.resolve("ccw-proxy.ready");
+        ReadyFile previous = new ReadyFile(file, 1234);
+        ReadyFile replacement = new ReadyFile(file, 5678);
+
+        previous.write("127.0.0.1", 15080);
+        replacement.write("127.0.0.1", 15080);
+        previous.delete();
+        assertEquals("5678 127.0.0.1:15080\n", Files.readString(file));
+    }
+}
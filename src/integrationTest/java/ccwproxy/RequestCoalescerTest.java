@@ -0,0 +1,104 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Verifies concurrent identical requests share one response.
+ */
+class RequestCoalescerTest {
+
+    private static final String KEY = "https://repo1.maven.org/maven2/org/example/lib/maven-metadata.xml";
+
+    @Test
+    void lateFollowerReceivesReplayThenLiveResponse() {
+        RequestCoalescer coalescer = new RequestCoalescer();
+        RequestCoalescer.Flight flight = coalescer.leadOrFollow(KEY, channel(), true);
+        assertNotNull(flight);
+
+        flight.relay(new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+        HttpContent first = new DefaultHttpContent(Unpooled.copiedBuffer("first ", StandardCharsets.UTF_8));
+        flight.relay(first);
+        // Written to the leader's client and released before anyone follows
+        first.content().skipBytes(first.content().readableBytes());
+        first.release();
+
+        EmbeddedChannel follower = channel();
+        assertNull(coalescer.leadOrFollow(KEY, follower, true));
+        follower.writeOutbound(RequestCoalescer.placeholder());
+
+        flight.relay(new DefaultLastHttpContent(Unpooled.copiedBuffer("second", StandardCharsets.UTF_8)));
+
+        assertEquals(HttpResponseStatus.OK, ((HttpResponse) follower.readOutbound()).status());
+        assertEquals("first ", text(follower.readOutbound()));
+        LastHttpContent last = follower.readOutbound();
+        assertEquals("second", text(last));
+        assertNull(follower.readOutbound(), "placeholder must not reach the client");
+        assertTrue(follower.isOpen());
+        assertEquals(1, coalescer.coalesced.sum());
+        assertEquals(0, coalescer.inFlight());
+    }
+
+    @Test
+    void failedFlightSendsBadGatewayToWaitingFollowers() {
+        RequestCoalescer coalescer = new RequestCoalescer();
+        EmbeddedChannel leader = channel();
+        coalescer.leadOrFollow(KEY, leader, true);
+        EmbeddedChannel follower = channel();
+        assertNull(coalescer.leadOrFollow(KEY, follower, true));
+
+        leader.close();
+
+        assertEquals(HttpResponseStatus.BAD_GATEWAY, ((HttpResponse) follower.readOutbound()).status());
+        assertNotNull(coalescer.leadOrFollow(KEY, channel(), true), "a failed flight must not be joined");
+    }
+
+    @Test
+    void onlyPlainGetsAreCoalescible() {
+        assertTrue(RequestCoalescer.isCoalescible(get()));
+
+        HttpRequest range = get();
+        range.headers().set("Range", "bytes=0-9");
+        assertFalse(RequestCoalescer.isCoalescible(range));
+
+        HttpRequest conditional = get();
+        conditional.headers().set("If-None-Match", "\"abc\"");
+        assertFalse(RequestCoalescer.isCoalescible(conditional));
+
+        assertFalse(RequestCoalescer.isCoalescible(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.HEAD, KEY)));
+    }
+
+    private static EmbeddedChannel channel() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        channel.pipeline().addLast("handler", new ChannelInboundHandlerAdapter());
+        return channel;
+    }
+
+    private static HttpRequest get() {
+        return new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, KEY);
+    }
+
+    private static String text(HttpContent content) {
+        try {
+            return content.content().toString(StandardCharsets.UTF_8);
+        } finally {
+            content.release();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+
+/**
+ * Verifies two instances can listen on one port with {@code SO_REUSEPORT}, and the second keeps accepting connections
+ * once the first hands over, on the group's own thread pools only.
+ */
+class ReusePortServerGroupTest {
+
+    private final ReusePortServerGroup previousGroup = new ReusePortServerGroup(1);
+    private final ReusePortServerGroup replacementGroup = new ReusePortServerGroup(1);
+    private HttpProxyServer previous;
+    private HttpProxyServer replacement;
+
+    @AfterEach
+    void stop() {
+        if (previous != null) {
+            previous.stop();
+        }
+        if (replacement != null) {
+            replacement.stop();
+        }
+        previousGroup.shutdown(false);
+        replacementGroup.shutdown(false);
+    }
+
+    @Test
+    void replacementBindsThePortThePreviousInstanceListensOn() throws Exception {
+        previous = start(previousGroup, 0);
+        int port = previous.getListenAddress().getPort();
+
+        replacement = start(replacementGroup, port);
+        assertEquals(port, replacement.getListenAddress().getPort());
+        assertEquals(1, previousGroup.listeners().size());
+        assertEquals(1, replacementGroup.listeners().size());
+
+        // Handing over: the previous instance stops listening, and every new connection reaches the replacement
+        previousGroup.listeners().forEach(listener -> listener.close().syncUninterruptibly());
+        for (int i = 0; i < 20; i++) {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                assertTrue(socket.isConnected());
+            }
+        }
+    }
+
+    @Test
+    void servesConnectionsWithoutLittleProxyPools() throws Exception {
+        previous = start(previousGroup, 0);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), previous.getListenAddress().getPort())) {
+            assertTrue(socket.isConnected());
+        }
+
+        // LittleProxy names its pools' threads after the group, e.g. ccw-proxy-ClientToProxyAcceptor-0-1
+        List<String> littleProxyThreads = Thread.getAllStackTraces().keySet().stream()
+                .map(Thread::getName)
+                .filter(name ->
+                        name.startsWith("ccw-proxy-ClientToProxy") || name.startsWith("ccw-proxy-ProxyToServer"))
+                .toList();
+        assertEquals(List.of(), littleProxyThreads);
+    }
+
+    private static HttpProxyServer start(ReusePortServerGroup group, int port) {
+        return DefaultHttpProxyServer.bootstrap()
+                .withServerGroup(group)
+                .withAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), port))
+                .start();
+    }
+}
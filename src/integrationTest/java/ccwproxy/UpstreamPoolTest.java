@@ -0,0 +1,128 @@
+package ccwproxy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import javax.net.ssl.SSLHandshakeException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.littleshoot.proxy.ChainedProxy;
+
+/**
+ * Verifies upstream ordering, connection accounting and health probing.
+ */
+class UpstreamPoolTest {
+
+    private final AccessLog log = new AccessLog(new ByteArrayOutputStream(), AccessLog.Format.TEXT, 64);
+    private final Metrics metrics = new Metrics();
+
+    @AfterEach
+    void closeLog() {
+        log.close();
+    }
+
+    @Test
+    void prefersFastHealthyUpstreams() {
+        UpstreamProxy slow = upstream(3001);
+        UpstreamProxy fast = upstream(3002);
+        slow.recordLatency(Duration.ofMillis(10).toNanos());
+        fast.recordLatency(Duration.ofMillis(1).toNanos());
+        UpstreamPool pool = new UpstreamPool(List.of(slow, fast), log);
+
+        assertEquals(List.of(3002, 3001), ports(pool));
+
+        // Ten open connections make the fast upstream more expensive than the idle slow one
+        for (int i = 0; i < 10; i++) {
+            connect(fast.newAttempt());
+        }
+        // Instant test connects pull the average down; a slower sample replaces it outright
+        fast.recordLatency(Duration.ofMillis(1).toNanos());
+        assertEquals(Duration.ofMillis(1).toNanos(), fast.latencyNanos());
+        assertEquals(List.of(3001, 3002), ports(pool));
+
+        slow.markUnhealthy();
+        assertEquals(List.of(3002, 3001), ports(pool));
+    }
+
+    @Test
+    void pairsConnectsWithDisconnects() {
+        UpstreamProxy upstream = upstream(3001);
+        ChainedProxy attempt = upstream.newAttempt();
+        connect(attempt);
+        assertEquals(1, upstream.outstanding());
+        assertTrue(upstream.latencyNanos() > 0);
+
+        attempt.disconnected();
+        attempt.disconnected();
+        assertEquals(0, upstream.outstanding());
+
+        ChainedProxy failed = upstream.newAttempt();
+        failed.getChainedProxyAddress();
+        failed.connectionFailed(new ConnectException("Connection refused"));
+        failed.disconnected();
+        assertEquals(0, upstream.outstanding());
+        assertFalse(upstream.healthy());
+        assertEquals(1, metrics.upstreamConnectFailures.sum());
+    }
+
+    @Test
+    void onlyTransportFailuresMarkUpstreamUnhealthy() {
+        UpstreamProxy upstream = upstream(3001);
+        ChainedProxy refusedConnect = upstream.newAttempt();
+        refusedConnect.getChainedProxyAddress();
+        refusedConnect.connectionFailed(new IllegalStateException("CONNECT refused: 502 Bad Gateway"));
+        ChainedProxy failedHandshake = upstream.newAttempt();
+        failedHandshake.getChainedProxyAddress();
+        failedHandshake.connectionFailed(new SSLHandshakeException("origin certificate expired"));
+        assertTrue(upstream.healthy());
+        assertEquals(2, metrics.upstreamConnectFailures.sum());
+
+        ChainedProxy reset = upstream.newAttempt();
+        reset.getChainedProxyAddress();
+        reset.connectionFailed(new SocketException("Connection reset"));
+        assertFalse(upstream.healthy());
+    }
+
+    @Test
+    void probeTakesUpstreamsInAndOutOfRotation() throws Exception {
+        ServerSocket listener = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        UpstreamProxy upstream = upstream(listener.getLocalPort());
+        UpstreamPool pool = new UpstreamPool(List.of(upstream, upstream(listener.getLocalPort())), log);
+        upstream.markUnhealthy();
+
+        pool.probe();
+        assertTrue(upstream.healthy());
+
+        listener.close();
+        pool.probe();
+        assertFalse(upstream.healthy());
+    }
+
+    private UpstreamProxy upstream(int port) {
+        return new UpstreamProxy(
+                new CachedAddress("127.0.0.1", port, Duration.ofMinutes(1), log), "dTpw", log, metrics);
+    }
+
+    private static void connect(ChainedProxy attempt) {
+        attempt.getChainedProxyAddress();
+        attempt.connectionSucceeded();
+    }
+
+    private static List<Integer> ports(UpstreamPool pool) {
+        Queue<ChainedProxy> queue = new ArrayDeque<>();
+        pool.lookupChainedProxies(null, queue, null);
+        return queue.stream()
+                .map(ChainedProxy::getChainedProxyAddress)
+                .map(InetSocketAddress::getPort)
+                .toList();
+    }
+}
@@ -0,0 +1,399 @@
+package ccwproxy;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous log for request/response events raised on Netty I/O threads.
+ *
+ * <p>Events are copied into a fixed ring of preallocated {@link Record}s and formatted by a single background writer,
+ * so the event loop never formats strings, reads the wall clock or blocks on the output stream. Producers claim slots
+ * with a CAS on a shared cursor (a bounded multi-producer/single-consumer queue with per-slot sequence numbers); when
+ * the writer falls behind and the ring is full, events are dropped and counted in {@link #dropped} instead of
+ * stalling the proxy.
+ *
+ * <p>Timestamps are taken with {@link System#nanoTime} and converted to wall-clock time by the writer.
+ */
+final class AccessLog implements AutoCloseable {
+
+    static final int DEFAULT_CAPACITY = 8192;
+
+    private static final long NO_START = Long.MIN_VALUE;
+
+    enum Format {
+        TEXT,
+        JSON
+    }
+
+    enum Event {
+        REQUEST,
+        RESPONSE,
+        CACHE_HIT,
+        NEGATIVE_HIT,
+        COALESCED,
+        QUEUED,
+        TIMEOUT,
+        COMPLETED,
+        TUNNEL_CLOSED,
+        MESSAGE
+    }
+
+    final LongAdder dropped = new LongAdder();
+
+    private final Record[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final Format format;
+    private final OutputStream out;
+    private final long wallClockEpochNanos;
+    private final long nanoTimeOrigin;
+    private final Thread writer;
+
+    private volatile boolean writerParked;
+    private volatile boolean closed;
+
+    AccessLog(OutputStream out, Format format, int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two");
+        }
+        this.out = out;
+        this.format = format;
+        this.slots = new Record[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Record();
+            sequences.set(i, i);
+        }
+        Instant now = Instant.now();
+        this.nanoTimeOrigin = System.nanoTime();
+        this.wallClockEpochNanos = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+        this.writer = Thread.ofPlatform().name("ccw-proxy-log").daemon().start(this::drainLoop);
+    }
+
+    /**
+     * A request was received from a client.
+     */
+    void request(String method, String uri) {
+        append(Event.REQUEST, method, uri, 0, NO_START, null);
+    }
+
+    /**
+     * A response head was received for a request that started at {@code startNanos}.
+     */
+    void response(String method, String uri, int status, long startNanos) {
+        append(Event.RESPONSE, method, uri, status, startNanos, null);
+    }
+
+    /**
+     * A request was answered without going upstream; {@code event} is {@link Event#CACHE_HIT},
+     * {@link Event#NEGATIVE_HIT} or {@link Event#COALESCED}, or it was {@link Event#QUEUED} to be sent later.
+     */
+    void shortCircuit(Event event, String method, String uri, int status, long startNanos) {
+        append(event, method, uri, status, startNanos, null);
+    }
+
+    void timeout(String method, String uri) {
+        append(Event.TIMEOUT, method, uri, 0, NO_START, null);
+    }
+
+    /**
+     * A response was received in full ({@link Event#COMPLETED}) or a tunnel closed ({@link Event#TUNNEL_CLOSED});
+     * {@code slow} if it took longer than the threshold to get going.
+     */
+    void timed(Event event, String method, String uri, int status, PhaseTimer timer, boolean slow) {
+        append(event, method, uri, status, timer.received, null, timer, slow);
+    }
+
+    /**
+     * A free-form line; the caller has already paid for building {@code message}, so keep these to rare events.
+     */
+    void message(String message) {
+        append(Event.MESSAGE, null, null, 0, NO_START, message);
+    }
+
+    private void append(Event event, String method, String uri, int status, long startNanos, String message) {
+        append(event, method, uri, status, startNanos, message, null, false);
+    }
+
+    private void append(
+            Event event,
+            String method,
+            String uri,
+            int status,
+            long startNanos,
+            String message,
+            PhaseTimer timer,
+            boolean slow) {
+        long now = System.nanoTime();
+        long position;
+        int index;
+        while (true) {
+            position = tail.get();
+            index = (int) (position & mask);
+            long difference = sequences.getAcquire(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (difference < 0) {
+                // The writer has not consumed this slot yet: the ring is full
+                dropped.increment();
+                return;
+            }
+        }
+        Record record = slots[index];
+        record.event = event;
+        record.nanoTime = now;
+        record.method = method;
+        record.uri = uri;
+        record.status = status;
+        record.elapsedNanos = startNanos == NO_START ? -1 : now - startNanos;
+        record.message = message;
+        record.timed = timer != null;
+        if (timer != null) {
+            for (PhaseTimer.Phase phase : PhaseTimer.PHASES) {
+                record.phaseNanos[phase.ordinal()] = timer.nanos(phase);
+            }
+            record.bytesUp = timer.bytesUp;
+            record.bytesDown = timer.bytesDown;
+            record.slow = slow;
+        }
+        sequences.setRelease(index, position + 1);
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void drainLoop() {
+        StringBuilder line = new StringBuilder(256);
+        long head = 0;
+        while (true) {
+            int index = (int) (head & mask);
+            if (sequences.getAcquire(index) == head + 1) {
+                line.setLength(0);
+                format(slots[index], line);
+                slots[index].clear();
+                sequences.setRelease(index, head + slots.length);
+                head++;
+                write(line);
+                continue;
+            }
+            flush();
+            if (closed) {
+                return;
+            }
+            writerParked = true;
+            if (sequences.getAcquire(index) != head + 1 && !closed) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+            }
+            writerParked = false;
+        }
+    }
+
+    private void format(Record record, StringBuilder line) {
+        long epochNanos = wallClockEpochNanos + (record.nanoTime - nanoTimeOrigin);
+        Instant timestamp = Instant.ofEpochSecond(0, epochNanos);
+        if (format == Format.JSON) {
+            formatJson(record, timestamp, line);
+        } else {
+            formatText(record, timestamp, line);
+        }
+        line.append('\n');
+    }
+
+    private static void formatText(Record record, Instant timestamp, StringBuilder line) {
+        line.append('[').append(timestamp).append("] ");
+        if (record.event == Event.MESSAGE) {
+            line.append(record.message);
+            return;
+        }
+        line.append(record.method).append(' ').append(record.uri);
+        switch (record.event) {
+            case RESPONSE -> line.append(" -> ").append(record.status).append(" (");
+            case CACHE_HIT -> line.append(" -> ").append(record.status).append(" (cache hit, ");
+            case NEGATIVE_HIT -> line.append(" -> ").append(record.status).append(" (known missing, ");
+            case COALESCED -> line.append(" -> coalesced (joined in-flight request, ");
+            case QUEUED -> line.append(" -> queued (host at concurrency limit, ");
+            case TIMEOUT -> line.append(" -> TIMEOUT (upstream did not respond)");
+            case COMPLETED -> line.append(" -> ").append(record.status).append(record.slow ? " SLOW (" : " complete (");
+            case TUNNEL_CLOSED -> line.append(record.slow ? " -> tunnel closed, SLOW setup (" : " -> tunnel closed (");
+            default -> {}
+        }
+        if (record.timed) {
+            formatPhases(record, line);
+        } else if (record.elapsedNanos >= 0) {
+            line.append(record.elapsedNanos / 1_000_000).append("ms)");
+        }
+    }
+
+    /**
+     * Appends e.g. {@code 912ms: connect 3.1ms, wait 850.4ms, transfer 58.0ms; 1048576 bytes)}.
+     */
+    private static void formatPhases(Record record, StringBuilder line) {
+        line.append(record.elapsedNanos / 1_000_000).append("ms:");
+        String separator = " ";
+        for (PhaseTimer.Phase phase : PhaseTimer.PHASES) {
+            long nanos = record.phaseNanos[phase.ordinal()];
+            if (nanos >= 0) {
+                line.append(separator).append(phase.label).append(' ');
+                line.append(nanos / 1_000_000)
+                        .append('.')
+                        .append(nanos / 100_000 % 10)
+                        .append("ms");
+                separator = ", ";
+            }
+        }
+        if (record.event == Event.TUNNEL_CLOSED) {
+            line.append("; ").append(record.bytesUp).append(" bytes up, ");
+            line.append(record.bytesDown).append(" bytes down)");
+        } else {
+            line.append("; ").append(record.bytesDown).append(" bytes)");
+        }
+    }
+
+    private static void formatJson(Record record, Instant timestamp, StringBuilder line) {
+        line.append("{\"ts\":\"").append(timestamp).append("\",\"event\":\"");
+        line.append(record.event.name().toLowerCase(Locale.ROOT)).append('"');
+        if (record.method != null) {
+            line.append(",\"method\":");
+            appendJsonString(line, record.method);
+        }
+        if (record.uri != null) {
+            line.append(",\"uri\":");
+            appendJsonString(line, record.uri);
+        }
+        if (record.status != 0) {
+            line.append(",\"status\":").append(record.status);
+        }
+        if (record.elapsedNanos >= 0) {
+            line.append(",\"durationNanos\":").append(record.elapsedNanos);
+        }
+        if (record.timed) {
+            for (PhaseTimer.Phase phase : PhaseTimer.PHASES) {
+                long nanos = record.phaseNanos[phase.ordinal()];
+                if (nanos >= 0) {
+                    line.append(",\"").append(phase.label).append("Nanos\":").append(nanos);
+                }
+            }
+            if (record.event == Event.TUNNEL_CLOSED) {
+                line.append(",\"bytesUp\":").append(record.bytesUp);
+            }
+            line.append(",\"bytesDown\":").append(record.bytesDown);
+            if (record.slow) {
+                line.append(",\"slow\":true");
+            }
+        }
+        if (record.message != null) {
+            line.append(",\"message\":");
+            appendJsonString(line, record.message);
+        }
+        line.append('}');
+    }
+
+    static void appendJsonString(StringBuilder line, String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> line.append("\\\"");
+                case '\\' -> line.append("\\\\");
+                case '\n' -> line.append("\\n");
+                case '\r' -> line.append("\\r");
+                case '\t' -> line.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+                }
+            }
+        }
+        line.append('"');
+    }
+
+    private void write(StringBuilder line) {
+        try {
+            out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // Nowhere left to report it
+        }
+    }
+
+    private void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            // Nowhere left to report it
+        }
+    }
+
+    /**
+     * Writes out everything logged so far and stops the writer.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (out != System.out) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Already shutting down
+            }
+        }
+    }
+
+    /**
+     * Opens the configured log destination, defaulting to stdout.
+     */
+    static OutputStream open(String path) throws IOException {
+        if (path == null) {
+            return System.out;
+        }
+        return new BufferedOutputStream(Files.newOutputStream(
+                Path.of(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+    }
+
+    private static final class Record {
+        Event event;
+        long nanoTime;
+        String method;
+        String uri;
+        int status;
+        long elapsedNanos;
+        String message;
+        // Set for COMPLETED and TUNNEL_CLOSED; -1 for phases that did not happen
+        boolean timed;
+        final long[] phaseNanos = new long[PhaseTimer.PHASES.length];
+        long bytesUp;
+        long bytesDown;
+        boolean slow;
+
+        void clear() {
+            // Drop references so a quiet ring does not pin request URIs
+            method = null;
+            uri = null;
+            message = null;
+        }
+    }
+}
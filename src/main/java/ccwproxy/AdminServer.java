@@ -0,0 +1,459 @@
+package ccwproxy;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Admin listener serving {@code /metrics} (Prometheus text format), {@code /metrics.json} and {@code /ready}.
+ *
+ * <p>Runs on its own single thread so scrapes never touch the proxy's event loops; rendering only reads counters and
+ * copies histogram buckets.
+ */
+final class AdminServer {
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final Metrics metrics;
+    private final UpstreamPool upstreams;
+    private final ConcurrencyLimiter limiter;
+    private final BufferBudget budget;
+    private final ArtifactCache cache;
+    private final NegativeCache negativeCache;
+    private final DependencyPrefetcher prefetcher;
+    private final RequestCoalescer coalescer;
+    private final AccessLog log;
+    private final HttpServer server;
+
+    private AdminServer(
+            HttpServer server,
+            Metrics metrics,
+            UpstreamPool upstreams,
+            ConcurrencyLimiter limiter,
+            BufferBudget budget,
+            ArtifactCache cache,
+            NegativeCache negativeCache,
+            DependencyPrefetcher prefetcher,
+            RequestCoalescer coalescer,
+            AccessLog log) {
+        this.server = server;
+        this.metrics = metrics;
+        this.upstreams = upstreams;
+        this.limiter = limiter;
+        this.budget = budget;
+        this.cache = cache;
+        this.negativeCache = negativeCache;
+        this.prefetcher = prefetcher;
+        this.coalescer = coalescer;
+        this.log = log;
+    }
+
+    /**
+     * Binds and starts the admin listener. {@code limiter}, {@code cache}, {@code negativeCache}, {@code prefetcher}
+     * and {@code coalescer} may be null when disabled.
+     */
+    static AdminServer start(
+            InetSocketAddress address,
+            Metrics metrics,
+            UpstreamPool upstreams,
+            ConcurrencyLimiter limiter,
+            BufferBudget budget,
+            ArtifactCache cache,
+            NegativeCache negativeCache,
+            DependencyPrefetcher prefetcher,
+            RequestCoalescer coalescer,
+            AccessLog log,
+            BooleanSupplier ready)
+            throws IOException {
+        HttpServer server = HttpServer.create(address, 0);
+        AdminServer admin = new AdminServer(
+                server, metrics, upstreams, limiter, budget, cache, negativeCache, prefetcher, coalescer, log);
+        server.createContext("/metrics", exchange -> {
+            if (exchange.getRequestURI().getPath().equals("/metrics.json")) {
+                admin.respond(exchange, "application/json", admin::json);
+            } else if (exchange.getRequestURI().getPath().equals("/metrics")) {
+                admin.respond(exchange, "text/plain; version=0.0.4; charset=utf-8", admin::prometheus);
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            }
+        });
+        // For health checks: 503 once the proxy stops accepting connections
+        server.createContext("/ready", exchange -> {
+            boolean accepting = ready.getAsBoolean();
+            byte[] body = (accepting ? "ready\n" : "not accepting connections\n").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(accepting ? 200 : 503, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        return admin;
+    }
+
+    InetSocketAddress address() {
+        return server.getAddress();
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    private void respond(HttpExchange exchange, String contentType, Supplier<String> body) throws IOException {
+        byte[] bytes = body.get().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private record Scalar(String name, String type, String help, Number value) {}
+
+    /**
+     * Scalar metrics in exposition order.
+     */
+    private List<Scalar> scalars() {
+        List<Scalar> values = new ArrayList<>();
+        values.add(new Scalar("requests_total", "counter", "Requests received", metrics.requests.sum()));
+        values.add(new Scalar(
+                "requests_per_second",
+                "gauge",
+                "Requests per second over the last 10 seconds",
+                metrics.requestsPerSecond()));
+        values.add(
+                new Scalar("client_connections", "gauge", "Open client connections", metrics.clientConnections.sum()));
+        values.add(new Scalar("active_tunnels", "gauge", "Open CONNECT tunnels", metrics.activeTunnels.sum()));
+        values.add(new Scalar(
+                "client_received_bytes_total", "counter", "Bytes received from clients", metrics.clientBytesIn.sum()));
+        values.add(new Scalar(
+                "client_sent_bytes_total", "counter", "Bytes sent to clients", metrics.clientBytesOut.sum()));
+        values.add(new Scalar(
+                "upstream_sent_bytes_total",
+                "counter",
+                "Bytes sent to the upstream proxy",
+                metrics.upstreamBytesOut.sum()));
+        values.add(new Scalar(
+                "upstream_received_bytes_total",
+                "counter",
+                "Bytes received from the upstream proxy",
+                metrics.upstreamBytesIn.sum()));
+        values.add(new Scalar(
+                "upstream_connect_failures_total",
+                "counter",
+                "Failed connections to the upstream proxy",
+                metrics.upstreamConnectFailures.sum()));
+        values.add(new Scalar(
+                "direct_connections_total",
+                "counter",
+                "Connections made directly, bypassing the upstream proxy",
+                upstreams.direct.sum()));
+        values.add(new Scalar(
+                "client_buffered_bytes", "gauge", "Bytes waiting to be written to clients", budget.buffered()));
+        values.add(new Scalar(
+                "client_buffer_pauses_total",
+                "counter",
+                "Times a client's upstream was paused because all clients together had too much waiting",
+                budget.pauses.sum()));
+        values.add(new Scalar(
+                "timeouts_total", "counter", "Requests the upstream did not answer in time", metrics.timeouts.sum()));
+        values.add(new Scalar(
+                "slow_requests_total",
+                "counter",
+                "Requests and tunnels slower than the threshold to their first response byte",
+                metrics.slowRequests.sum()));
+        if (cache != null) {
+            values.add(new Scalar("cache_hits_total", "counter", "Artifact cache hits", cache.hits.sum()));
+            values.add(new Scalar(
+                    "cache_snapshot_hits_total",
+                    "counter",
+                    "Artifact cache hits served from the snapshot",
+                    cache.snapshotHits.sum()));
+            values.add(new Scalar("cache_misses_total", "counter", "Artifact cache misses", cache.misses.sum()));
+            values.add(new Scalar("cache_stores_total", "counter", "Artifacts stored", cache.stores.sum()));
+            values.add(new Scalar("cache_evictions_total", "counter", "Artifacts evicted", cache.evictions.sum()));
+            values.add(new Scalar("cache_bytes", "gauge", "Artifact cache size", cache.totalBytes()));
+        }
+        if (negativeCache != null) {
+            values.add(new Scalar(
+                    "negative_cache_hits_total",
+                    "counter",
+                    "Requests for known-missing files answered locally",
+                    negativeCache.hits.sum()));
+            values.add(new Scalar(
+                    "negative_cache_stores_total",
+                    "counter",
+                    "Upstream 404/410 answers remembered",
+                    negativeCache.stores.sum()));
+        }
+        if (prefetcher != null) {
+            values.add(new Scalar(
+                    "prefetch_requests_total", "counter", "Dependencies prefetched", prefetcher.fetched.sum()));
+            values.add(new Scalar(
+                    "prefetch_failures_total", "counter", "Prefetches that failed", prefetcher.failed.sum()));
+            values.add(new Scalar(
+                    "prefetch_dropped_total",
+                    "counter",
+                    "Prefetches skipped because the queue was full",
+                    prefetcher.dropped.sum()));
+        }
+        if (coalescer != null) {
+            values.add(new Scalar(
+                    "coalesced_requests_total",
+                    "counter",
+                    "Requests served from another request's upstream response",
+                    coalescer.coalesced.sum()));
+        }
+        if (limiter != null) {
+            values.add(new Scalar(
+                    "concurrency_rejected_total",
+                    "counter",
+                    "Requests refused with 503 because their host's queue was full",
+                    limiter.rejected.sum()));
+        }
+        values.add(new Scalar(
+                "access_log_dropped_total",
+                "counter",
+                "Access log events dropped because the writer fell behind",
+                log.dropped.sum()));
+        return values;
+    }
+
+    String prometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Scalar scalar : scalars()) {
+            String name = "ccw_proxy_" + scalar.name;
+            out.append("# HELP ").append(name).append(' ').append(scalar.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(scalar.type).append('\n');
+            out.append(name).append(' ').append(scalar.value).append('\n');
+        }
+        upstreamGauge(
+                out,
+                "upstream_healthy",
+                "Whether the upstream proxy is in rotation",
+                upstream -> upstream.healthy() ? 1 : 0);
+        upstreamGauge(
+                out,
+                "upstream_open_connections",
+                "Open connections through the upstream proxy",
+                UpstreamProxy::outstanding);
+        upstreamGauge(
+                out,
+                "upstream_latency_seconds",
+                "Peak-weighted average connect latency of the upstream proxy",
+                upstream -> seconds(upstream.latencyNanos() / 1_000));
+        if (limiter != null) {
+            Map<String, ConcurrencyLimiter.HostLimit> limits = new TreeMap<>(limiter.hosts());
+            hostGauge(
+                    out,
+                    "concurrency_limit",
+                    "Adaptive limit on concurrent requests to the host",
+                    limits,
+                    ConcurrencyLimiter.HostLimit::limit);
+            hostGauge(
+                    out,
+                    "concurrency_in_flight",
+                    "Requests to the host in flight",
+                    limits,
+                    ConcurrencyLimiter.HostLimit::inFlight);
+            hostGauge(
+                    out,
+                    "concurrency_queued",
+                    "Requests waiting for the host's limit",
+                    limits,
+                    ConcurrencyLimiter.HostLimit::queued);
+        }
+        Map<String, LatencyHistogram> connect = new TreeMap<>();
+        Map<String, LatencyHistogram> response = new TreeMap<>();
+        metrics.hosts().forEach((host, histograms) -> {
+            connect.put(host, histograms.connect);
+            response.put(host, histograms.response);
+        });
+        summary(out, "ccw_proxy_connect_seconds", "Time to establish CONNECT tunnels", "host", connect);
+        summary(out, "ccw_proxy_response_seconds", "Time to the upstream response head", "host", response);
+        summary(out, "ccw_proxy_phase_seconds", "Time spent in each phase of requests and tunnels", "phase", phases());
+        return out.toString();
+    }
+
+    private void upstreamGauge(StringBuilder out, String suffix, String help, Function<UpstreamProxy, Number> value) {
+        String name = "ccw_proxy_" + suffix;
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        for (UpstreamProxy upstream : upstreams.upstreams()) {
+            out.append(name)
+                    .append("{upstream=\"")
+                    .append(escapeLabel(upstream.toString()))
+                    .append("\"} ")
+                    .append(value.apply(upstream))
+                    .append('\n');
+        }
+    }
+
+    private static void hostGauge(
+            StringBuilder out,
+            String suffix,
+            String help,
+            Map<String, ConcurrencyLimiter.HostLimit> limits,
+            Function<ConcurrencyLimiter.HostLimit, Number> value) {
+        String name = "ccw_proxy_" + suffix;
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        for (Map.Entry<String, ConcurrencyLimiter.HostLimit> entry : limits.entrySet()) {
+            out.append(name)
+                    .append("{host=\"")
+                    .append(escapeLabel(entry.getKey()))
+                    .append("\"} ")
+                    .append(value.apply(entry.getValue()))
+                    .append('\n');
+        }
+    }
+
+    /**
+     * Phase histograms keyed by phase name, in the order the phases happen.
+     */
+    private Map<String, LatencyHistogram> phases() {
+        Map<String, LatencyHistogram> phases = new LinkedHashMap<>();
+        for (PhaseTimer.Phase phase : PhaseTimer.PHASES) {
+            phases.put(phase.label, metrics.phases[phase.ordinal()]);
+        }
+        return phases;
+    }
+
+    private static void summary(
+            StringBuilder out, String name, String help, String label, Map<String, LatencyHistogram> histograms) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" summary\n");
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+            if (snapshot.count == 0) {
+                continue;
+            }
+            String value = escapeLabel(entry.getKey());
+            for (double quantile : QUANTILES) {
+                out.append(name)
+                        .append('{')
+                        .append(label)
+                        .append("=\"")
+                        .append(value)
+                        .append("\",quantile=\"")
+                        .append(quantile)
+                        .append("\"} ")
+                        .append(seconds(snapshot.percentileMicros(quantile)))
+                        .append('\n');
+            }
+            out.append(name)
+                    .append("_sum{")
+                    .append(label)
+                    .append("=\"")
+                    .append(value)
+                    .append("\"} ")
+                    .append(seconds(snapshot.sumMicros))
+                    .append('\n');
+            out.append(name)
+                    .append("_count{")
+                    .append(label)
+                    .append("=\"")
+                    .append(value)
+                    .append("\"} ")
+                    .append(snapshot.count)
+                    .append('\n');
+        }
+    }
+
+    String json() {
+        StringBuilder out = new StringBuilder(4096);
+        out.append('{');
+        for (Scalar scalar : scalars()) {
+            out.append('"')
+                    .append(scalar.name)
+                    .append("\":")
+                    .append(scalar.value)
+                    .append(',');
+        }
+        out.append("\"upstreams\":{");
+        boolean firstUpstream = true;
+        for (UpstreamProxy upstream : upstreams.upstreams()) {
+            if (!firstUpstream) {
+                out.append(',');
+            }
+            firstUpstream = false;
+            AccessLog.appendJsonString(out, upstream.toString());
+            out.append(":{\"healthy\":").append(upstream.healthy());
+            out.append(",\"open_connections\":").append(upstream.outstanding());
+            out.append(",\"latency_ms\":").append(upstream.latencyNanos() / 1_000_000.0);
+            out.append('}');
+        }
+        out.append('}');
+        if (limiter != null) {
+            out.append(",\"limits\":{");
+            boolean firstLimit = true;
+            for (Map.Entry<String, ConcurrencyLimiter.HostLimit> entry : new TreeMap<>(limiter.hosts()).entrySet()) {
+                if (!firstLimit) {
+                    out.append(',');
+                }
+                firstLimit = false;
+                AccessLog.appendJsonString(out, entry.getKey());
+                out.append(":{\"limit\":").append(entry.getValue().limit());
+                out.append(",\"in_flight\":").append(entry.getValue().inFlight());
+                out.append(",\"queued\":").append(entry.getValue().queued());
+                out.append('}');
+            }
+            out.append('}');
+        }
+        out.append(",\"hosts\":{");
+        boolean first = true;
+        for (Map.Entry<String, Metrics.HostMetrics> entry : new TreeMap<>(metrics.hosts()).entrySet()) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            AccessLog.appendJsonString(out, entry.getKey());
+            out.append(":{\"connect\":");
+            histogramJson(out, entry.getValue().connect.snapshot());
+            out.append(",\"response\":");
+            histogramJson(out, entry.getValue().response.snapshot());
+            out.append('}');
+        }
+        out.append("},\"phases\":{");
+        first = true;
+        for (Map.Entry<String, LatencyHistogram> entry : phases().entrySet()) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            AccessLog.appendJsonString(out, entry.getKey());
+            out.append(':');
+            histogramJson(out, entry.getValue().snapshot());
+        }
+        out.append("}}");
+        return out.toString();
+    }
+
+    private static void histogramJson(StringBuilder out, LatencyHistogram.Snapshot snapshot) {
+        out.append("{\"count\":").append(snapshot.count);
+        out.append(",\"p50_ms\":").append(snapshot.percentileMicros(0.5) / 1000.0);
+        out.append(",\"p99_ms\":").append(snapshot.percentileMicros(0.99) / 1000.0);
+        out.append(",\"p999_ms\":").append(snapshot.percentileMicros(0.999) / 1000.0);
+        out.append('}');
+    }
+
+    private static double seconds(long micros) {
+        return micros / 1_000_000.0;
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,504 @@
+package ccwproxy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache for immutable release artifacts ({@code .jar}, {@code .pom}, {@code .module}, {@code .sha1}).
+ *
+ * <p>Each entry is a single file named by the SHA-256 of its URL, holding a small header (URL, ETag and SHA-256 of
+ * the body) followed by the response body. Hits are served from a memory-mapped view of the file. Entries are evicted
+ * least-recently-used first once the cache grows beyond its size cap. A {@link CacheSnapshot}, if given, answers
+ * lookups the directory cannot.
+ */
+final class ArtifactCache {
+
+    private static final int MAGIC = 0x43435731; // "CCW1"
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final HexFormat HEX = HexFormat.of();
+    // Entry files are served from a single mapped buffer, whose size is an int
+    static final long MAX_ENTRY_BYTES = Integer.MAX_VALUE;
+    // URL and ETag lengths are stored as unsigned shorts
+    private static final int MAX_FIELD_BYTES = 0xffff;
+
+    private final Path dir;
+    private final long maxBytes;
+    private final AccessLog log;
+    // Null when the cache did not start from a snapshot
+    private final CacheSnapshot snapshot;
+
+    // key (hex SHA-256 of the URL) -> entry file size, in access order
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+    private final AtomicLong tmpCounter = new AtomicLong();
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder snapshotHits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder stores = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+
+    private ArtifactCache(Path dir, long maxBytes, CacheSnapshot snapshot, AccessLog log) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.snapshot = snapshot;
+        this.log = log;
+    }
+
+    static ArtifactCache open(Path dir, long maxBytes, AccessLog log) throws IOException {
+        return open(dir, maxBytes, null, log);
+    }
+
+    /**
+     * Opens the cache in {@code dir}, indexing any entries left by a previous run (oldest first) and deleting
+     * incomplete downloads. Entries missing from {@code dir} are looked up in {@code snapshot}, if not null. Failures
+     * while serving are reported to {@code log}, as they happen on the event loop.
+     */
+    static ArtifactCache open(Path dir, long maxBytes, CacheSnapshot snapshot, AccessLog log) throws IOException {
+        Files.createDirectories(dir);
+        ArtifactCache cache = new ArtifactCache(dir, maxBytes, snapshot, log);
+
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(dir)) {
+            stream.forEach(files::add);
+        }
+        files.sort(Comparator.comparingLong(ArtifactCache::lastModified));
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (name.endsWith(TMP_SUFFIX)) {
+                Files.deleteIfExists(file);
+            } else if (Files.isRegularFile(file)) {
+                long size = Files.size(file);
+                cache.entries.put(name, size);
+                cache.totalBytes += size;
+            }
+        }
+        synchronized (cache) {
+            cache.evictIfNecessary();
+        }
+        return cache;
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns true if the request is a plain GET for an immutable release artifact.
+     */
+    static boolean isCacheable(HttpRequest request) {
+        return request.method() == HttpMethod.GET
+                && !request.headers().contains(HttpHeaderNames.RANGE)
+                && isArtifactPath(request.uri());
+    }
+
+    /**
+     * Returns true if {@code uri} names an immutable release artifact in a repository.
+     */
+    static boolean isArtifactPath(String uri) {
+        if (uri.indexOf('?') >= 0 || uri.contains("-SNAPSHOT") || uri.contains("maven-metadata.xml")) {
+            return false;
+        }
+        // Only checksums of artifacts; those of metadata change whenever it is republished
+        int end = uri.endsWith(".sha1") ? uri.length() - ".sha1".length() : uri.length();
+        return uri.startsWith(".jar", end - 4) || uri.startsWith(".pom", end - 4) || uri.startsWith(".module", end - 7);
+    }
+
+    /**
+     * Returns the absolute URL of a request. Requests on intercepted TLS connections carry only a path, so the
+     * scheme and host are rebuilt from the Host header.
+     */
+    static String urlOf(HttpRequest request) {
+        String uri = request.uri();
+        if (!uri.startsWith("/")) {
+            return uri;
+        }
+        return "https://" + request.headers().get(HttpHeaderNames.HOST) + uri;
+    }
+
+    /**
+     * Returns a response for {@code url} served from a memory-mapped entry, or null on a miss.
+     */
+    FullHttpResponse lookup(String url) {
+        String key = keyOf(url);
+        boolean present;
+        synchronized (this) {
+            // Marks the entry as recently used
+            present = entries.get(key) != null;
+        }
+        FullHttpResponse response = present ? read(key, url) : null;
+        if (response == null && snapshot != null) {
+            response = readSnapshot(key, url);
+            if (response != null) {
+                snapshotHits.increment();
+            }
+        }
+        if (response != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return response;
+    }
+
+    /**
+     * Like {@link #lookup}, for the proxy's own use: not counted as a hit or miss and not affecting eviction order.
+     */
+    FullHttpResponse peek(String url) {
+        String key = keyOf(url);
+        boolean present;
+        synchronized (this) {
+            present = entries.containsKey(key);
+        }
+        FullHttpResponse response = present ? read(key, url) : null;
+        return response == null && snapshot != null ? readSnapshot(key, url) : response;
+    }
+
+    boolean contains(String url) {
+        String key = keyOf(url);
+        synchronized (this) {
+            if (entries.containsKey(key)) {
+                return true;
+            }
+        }
+        return snapshot != null && snapshot.contains(key);
+    }
+
+    private FullHttpResponse read(String key, String url) {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(dir.resolve(key), StandardOpenOption.READ)) {
+            if (channel.size() > MAX_ENTRY_BYTES) {
+                // Not written by this version; cannot be mapped in one piece
+                remove(key);
+                return null;
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            remove(key);
+            return null;
+        } catch (IOException e) {
+            log.message("cache read failed for " + url + ": " + e.getMessage());
+            return null;
+        }
+
+        FullHttpResponse response = respond(mapped, url);
+        if (response == null) {
+            remove(key);
+        }
+        return response;
+    }
+
+    private FullHttpResponse readSnapshot(String key, String url) {
+        ByteBuffer entry = snapshot.entry(key);
+        return entry == null ? null : respond(entry, url);
+    }
+
+    /**
+     * Builds the response held by an entry, or returns null if it is not a valid entry for {@code url}.
+     */
+    private static FullHttpResponse respond(ByteBuffer mapped, String url) {
+        Header header = Header.read(mapped);
+        if (header == null || !header.url.equals(url)) {
+            return null;
+        }
+
+        ByteBuf body = Unpooled.wrappedBuffer(
+                mapped.position(header.bodyOffset).limit(header.bodyOffset + (int) header.bodyLength));
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, body);
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, header.bodyLength);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, contentTypeOf(url));
+        if (!header.etag.isEmpty()) {
+            response.headers().set(HttpHeaderNames.ETAG, header.etag);
+        }
+        return response;
+    }
+
+    /**
+     * Starts writing a new entry for {@code url}, or returns null if the entry cannot be created, for example because
+     * the URL or ETag is too long to store.
+     */
+    Writer begin(String url, String etag) {
+        byte[] urlBytes = url.getBytes(StandardCharsets.UTF_8);
+        byte[] etagBytes = (etag == null ? "" : etag).getBytes(StandardCharsets.UTF_8);
+        if (urlBytes.length > MAX_FIELD_BYTES || etagBytes.length > MAX_FIELD_BYTES) {
+            return null;
+        }
+        String key = keyOf(url);
+        Path tmp = dir.resolve(key + "." + tmpCounter.incrementAndGet() + TMP_SUFFIX);
+        try {
+            return new Writer(key, urlBytes, etagBytes, tmp);
+        } catch (IOException e) {
+            log.message("cache write failed for " + url + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized void commit(String key, Path tmp, long size) throws IOException {
+        Files.move(tmp, dir.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Long previous = entries.put(key, size);
+        if (previous != null) {
+            totalBytes -= previous;
+        }
+        totalBytes += size;
+        stores.increment();
+        evictIfNecessary();
+    }
+
+    private synchronized void remove(String key) {
+        Long size = entries.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+            deleteQuietly(dir.resolve(key));
+        }
+    }
+
+    private void evictIfNecessary() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.getValue();
+            deleteQuietly(dir.resolve(eldest.getKey()));
+            evictions.increment();
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Leave it for the next startup scan
+        }
+    }
+
+    /**
+     * Returns true if {@code entry} is a complete entry whose body matches the SHA-256 in its header.
+     */
+    static boolean verify(ByteBuffer entry) {
+        Header header = Header.read(entry);
+        if (header == null) {
+            return false;
+        }
+        MessageDigest digest = sha256();
+        digest.update(entry.duplicate().position(header.bodyOffset));
+        return MessageDigest.isEqual(digest.digest(), header.sha256);
+    }
+
+    static String keyOf(String url) {
+        return HEX.formatHex(sha256().digest(url.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String contentTypeOf(String url) {
+        if (url.endsWith(".jar")) {
+            return "application/java-archive";
+        } else if (url.endsWith(".pom")) {
+            return "application/xml";
+        } else if (url.endsWith(".module")) {
+            return "application/json";
+        }
+        return "text/plain";
+    }
+
+    /**
+     * Parsed entry header: {@code magic, urlLen, url, etagLen, etag, sha256[32], bodyLength} followed by the body.
+     */
+    static final class Header {
+        final String url;
+        final String etag;
+        final byte[] sha256;
+        final long bodyLength;
+        final int bodyOffset;
+
+        private Header(String url, String etag, byte[] sha256, long bodyLength, int bodyOffset) {
+            this.url = url;
+            this.etag = etag;
+            this.sha256 = sha256;
+            this.bodyLength = bodyLength;
+            this.bodyOffset = bodyOffset;
+        }
+
+        static int size(byte[] url, byte[] etag) {
+            return 4 + 2 + url.length + 2 + etag.length + 32 + 8;
+        }
+
+        /**
+         * Writes everything before the SHA-256 and body length, which are only known once the body is complete.
+         */
+        static ByteBuffer write(byte[] url, byte[] etag) {
+            if (url.length > MAX_FIELD_BYTES || etag.length > MAX_FIELD_BYTES) {
+                throw new IllegalArgumentException("URL or ETag too long for a cache entry");
+            }
+            ByteBuffer header = ByteBuffer.allocate(size(url, etag) - 32 - 8);
+            header.putInt(MAGIC);
+            header.putShort((short) url.length).put(url);
+            header.putShort((short) etag.length).put(etag);
+            return header.flip();
+        }
+
+        static Header read(ByteBuffer buffer) {
+            try {
+                ByteBuffer in = buffer.duplicate();
+                if (in.getInt() != MAGIC) {
+                    return null;
+                }
+                byte[] url = new byte[in.getShort() & 0xffff];
+                in.get(url);
+                byte[] etag = new byte[in.getShort() & 0xffff];
+                in.get(etag);
+                byte[] sha256 = new byte[32];
+                in.get(sha256);
+                long bodyLength = in.getLong();
+                // Also keeps the body within what a buffer can address
+                if (bodyLength != in.remaining()) {
+                    return null;
+                }
+                return new Header(
+                        new String(url, StandardCharsets.UTF_8),
+                        new String(etag, StandardCharsets.UTF_8),
+                        sha256,
+                        bodyLength,
+                        in.position());
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Streams a response body into a temporary file that is moved into place on {@link #commit()}. The client
+     * connection may abort a write from another thread, so all methods are synchronized.
+     */
+    final class Writer {
+        private final String key;
+        private final Path tmp;
+        private final FileChannel channel;
+        private final MessageDigest digest = sha256();
+        private final int headerSize;
+        private long bodyLength;
+        private boolean closed;
+
+        private Writer(String key, byte[] url, byte[] etag, Path tmp) throws IOException {
+            this.key = key;
+            this.tmp = tmp;
+            this.headerSize = Header.size(url, etag);
+            ByteBuffer header = Header.write(url, etag);
+            this.channel = FileChannel.open(
+                    tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            channel.write(header, 0);
+        }
+
+        /**
+         * Returns true if a body of {@code length} bytes would fit in this entry.
+         */
+        boolean fits(long length) {
+            return length >= 0 && length <= MAX_ENTRY_BYTES - headerSize;
+        }
+
+        synchronized long bodyLength() {
+            return bodyLength;
+        }
+
+        synchronized void write(ByteBuf content) {
+            if (closed || !content.isReadable()) {
+                return;
+            }
+            int length = content.readableBytes();
+            if (!fits(bodyLength + length)) {
+                abort();
+                return;
+            }
+            try {
+                digest.update(content.nioBuffer());
+                content.getBytes(content.readerIndex(), channel, headerSize + bodyLength, length);
+                bodyLength += length;
+            } catch (IOException e) {
+                log.message("cache write failed: " + e.getMessage());
+                abort();
+            }
+        }
+
+        synchronized void commit() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                ByteBuffer trailer = ByteBuffer.allocate(32 + 8);
+                trailer.put(digest.digest()).putLong(bodyLength).flip();
+                channel.write(trailer, headerSize - 32 - 8);
+                channel.close();
+                ArtifactCache.this.commit(key, tmp, headerSize + bodyLength);
+            } catch (IOException e) {
+                log.message("cache commit failed: " + e.getMessage());
+                closeQuietly();
+                deleteQuietly(tmp);
+            }
+        }
+
+        synchronized void abort() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closeQuietly();
+            deleteQuietly(tmp);
+        }
+
+        private void closeQuietly() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
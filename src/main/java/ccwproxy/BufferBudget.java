@@ -0,0 +1,134 @@
+package ccwproxy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
+import io.netty.channel.WriteBufferWaterMark;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps the memory held for clients that read more slowly than the upstream delivers.
+ *
+ * <p>LittleProxy stops reading from a connection's upstream while the client channel is not writable, and resumes once
+ * it drains. This sets the watermarks that decide when that happens, and counts the bytes waiting to be written to
+ * every client. When that total exceeds the global limit, each client written to is marked not writable through a
+ * Netty user-defined writability flag, which pauses its upstream the same way; once the total falls to half the limit,
+ * all of them resume. Memory therefore stays bounded by the limit plus what is in flight per connection, whatever the
+ * size of the download.
+ */
+final class BufferBudget {
+
+    static final int DEFAULT_CONNECTION_BYTES = 1024 * 1024;
+    static final long DEFAULT_TOTAL_BYTES = 64L * 1024 * 1024;
+
+    // User-defined writability flags; Netty's own watermark flag is separate
+    static final int OVER_BUDGET = 1;
+    static final int SLOW_FOLLOWER = 2;
+
+    private static final String HANDLER_NAME = "ccw-budget";
+
+    final LongAdder pauses = new LongAdder();
+
+    // Reloadable; connections keep the watermarks they were given
+    private volatile WriteBufferWaterMark waterMark;
+    private volatile long totalBytes;
+    private final AtomicLong buffered = new AtomicLong();
+    private final Set<Channel> paused = ConcurrentHashMap.newKeySet();
+    private final ChannelHandler accounting = new Accounting();
+
+    BufferBudget(int connectionBytes, long totalBytes) {
+        resize(connectionBytes, totalBytes);
+    }
+
+    void resize(int connectionBytes, long totalBytes) {
+        this.waterMark = new WriteBufferWaterMark(connectionBytes / 2, connectionBytes);
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * Applies the per-connection watermarks to a client channel and starts counting what is written to it.
+     */
+    void install(Channel channel) {
+        if (channel.pipeline().get(HANDLER_NAME) == null) {
+            channel.config().setWriteBufferWaterMark(waterMark);
+            // Ahead of the HTTP codec, so it counts encoded bytes rather than message objects
+            channel.pipeline().addFirst(HANDLER_NAME, accounting);
+        }
+    }
+
+    /**
+     * Bytes written to clients but not yet flushed to their sockets.
+     */
+    long buffered() {
+        return buffered.get();
+    }
+
+    /**
+     * Marks {@code channel} writable or not for {@code reason}; it is writable only while no reason says otherwise.
+     * Safe to call from any thread.
+     */
+    static void setWritable(Channel channel, int reason, boolean writable) {
+        if (channel.eventLoop().inEventLoop()) {
+            ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+            if (buffer != null) {
+                buffer.setUserDefinedWritability(reason, writable);
+            }
+        } else {
+            channel.eventLoop().execute(() -> setWritable(channel, reason, writable));
+        }
+    }
+
+    private void reserve(Channel channel, long bytes) {
+        if (buffered.addAndGet(bytes) > totalBytes && paused.add(channel)) {
+            pauses.increment();
+            setWritable(channel, OVER_BUDGET, false);
+        }
+    }
+
+    private void release(long bytes) {
+        if (buffered.addAndGet(-bytes) <= totalBytes / 2 && !paused.isEmpty()) {
+            for (Channel channel : paused) {
+                if (paused.remove(channel)) {
+                    setWritable(channel, OVER_BUDGET, true);
+                }
+            }
+        }
+    }
+
+    private static long sizeOf(Object msg) {
+        if (msg instanceof ByteBuf) {
+            return ((ByteBuf) msg).readableBytes();
+        }
+        if (msg instanceof ByteBufHolder) {
+            return ((ByteBufHolder) msg).content().readableBytes();
+        }
+        if (msg instanceof FileRegion) {
+            return ((FileRegion) msg).count();
+        }
+        return 0;
+    }
+
+    @ChannelHandler.Sharable
+    private final class Accounting extends ChannelOutboundHandlerAdapter {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+            long bytes = sizeOf(msg);
+            if (bytes == 0) {
+                ctx.write(msg, promise);
+                return;
+            }
+            reserve(ctx.channel(), bytes);
+            // The promise completes once the bytes left the process, or will never leave it
+            ctx.write(msg, promise.unvoid().addListener(future -> release(bytes)));
+        }
+    }
+}
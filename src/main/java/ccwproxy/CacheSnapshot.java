@@ -0,0 +1,369 @@
+package ccwproxy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * A read-only copy of the {@link ArtifactCache} in a single file, so a fresh environment starts with a warm cache.
+ *
+ * <p>The file holds a header ({@code magic, version, entryCount, reserved, indexOffset}), the cache's entry files one
+ * after another, and an index of {@code key[32], offset, length} records sorted by key, the SHA-256 of the URL. Each
+ * entry keeps its URL, ETag and body SHA-256 in its own header, exactly as in the cache directory. Opening a snapshot
+ * only maps the index, so lookups work immediately however large it is; an entry is mapped when it is served. Bodies
+ * are checked against their SHA-256 {@linkplain #verifyInBackground() in the background}, off the event loops, and an
+ * entry is only served once its check has passed.
+ */
+final class CacheSnapshot implements Closeable {
+
+    private static final int MAGIC = 0x43435753; // "CCWS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 8;
+    private static final int RECORD_BYTES = 32 + 8 + 8;
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final FileChannel channel;
+    private final MappedByteBuffer index;
+    private final int count;
+    private final long totalBytes;
+    private final AccessLog log;
+
+    // By index position: entries whose body matched its SHA-256, and those that did not
+    private final BitSet verified = new BitSet();
+    private final BitSet corrupt = new BitSet();
+
+    private CacheSnapshot(FileChannel channel, MappedByteBuffer index, int count, long totalBytes, AccessLog log) {
+        this.channel = channel;
+        this.index = index;
+        this.count = count;
+        this.totalBytes = totalBytes;
+        this.log = log;
+    }
+
+    /**
+     * Opens the snapshot in {@code file}, mapping its index. Entries that cannot be read are reported to {@code log}.
+     */
+    static CacheSnapshot open(Path file, AccessLog log) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // Keep reading
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                throw new IOException("not a cache snapshot");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported snapshot version " + version);
+            }
+            int count = header.getInt();
+            header.getInt();
+            long indexOffset = header.getLong();
+            if (count < 0
+                    || indexOffset < HEADER_BYTES
+                    || indexOffset + (long) count * RECORD_BYTES != channel.size()) {
+                throw new IOException("truncated cache snapshot");
+            }
+            MappedByteBuffer index =
+                    channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, (long) count * RECORD_BYTES);
+            return new CacheSnapshot(channel, index, count, indexOffset - HEADER_BYTES, log);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    long totalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Returns true if the snapshot has an entry for {@code key} that has not failed its checksum.
+     */
+    boolean contains(String key) {
+        int i = find(key);
+        if (i < 0) {
+            return false;
+        }
+        synchronized (this) {
+            return !corrupt.get(i);
+        }
+    }
+
+    /**
+     * Returns the entry for {@code key}, laid out as an entry file of the cache directory, or null if there is none
+     * or its body has not (yet) been found to match its SHA-256.
+     */
+    ByteBuffer entry(String key) {
+        int i = find(key);
+        if (i < 0) {
+            return null;
+        }
+        synchronized (this) {
+            if (!verified.get(i)) {
+                return null;
+            }
+        }
+        return map(i);
+    }
+
+    /**
+     * Checks every entry against its SHA-256 on a thread of its own, making each servable as it passes.
+     */
+    void verifyInBackground() {
+        Thread.ofPlatform().name("ccw-proxy-snapshot").daemon().start(this::verifyAll);
+    }
+
+    /**
+     * Checks every entry not checked yet against its SHA-256, stopping early if the snapshot is closed.
+     */
+    void verifyAll() {
+        for (int i = 0; i < count && channel.isOpen(); i++) {
+            verifiedEntryAt(i);
+        }
+        if (channel.isOpen()) {
+            int failed;
+            synchronized (this) {
+                failed = corrupt.cardinality();
+            }
+            log.message("cache snapshot verified: " + (count - failed) + " of " + count + " entries usable");
+        }
+    }
+
+    /**
+     * Returns the entry at {@code i}, checking it first if that has not been done, or null if it does not match its
+     * SHA-256.
+     */
+    private ByteBuffer verifiedEntryAt(int i) {
+        boolean checked;
+        synchronized (this) {
+            if (corrupt.get(i)) {
+                return null;
+            }
+            checked = verified.get(i);
+        }
+        ByteBuffer entry = map(i);
+        // Two threads may both check a new entry; the result is the same
+        if (entry != null && !checked) {
+            boolean valid = ArtifactCache.verify(entry);
+            synchronized (this) {
+                (valid ? verified : corrupt).set(i);
+            }
+            if (!valid) {
+                log.message("cache snapshot entry " + HEX.formatHex(keyAt(i))
+                        + " does not match its checksum, ignoring it");
+                return null;
+            }
+        }
+        return entry;
+    }
+
+    private ByteBuffer map(int i) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, offsetAt(i), lengthAt(i));
+        } catch (ClosedChannelException e) {
+            return null;
+        } catch (IOException | IllegalArgumentException e) {
+            log.message("cache snapshot read failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Runs on every cache lookup, so the hex key is read into four longs rather than decoded into an array
+    private int find(String key) {
+        if (!isKey(key)) {
+            return -1;
+        }
+        long word0 = parseWord(key, 0);
+        long word1 = parseWord(key, 1);
+        long word2 = parseWord(key, 2);
+        long word3 = parseWord(key, 3);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareKeyAt(mid, word0, word1, word2, word3);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    // Big-endian longs compared unsigned order keys the same way as their bytes
+    private int compareKeyAt(int i, long word0, long word1, long word2, long word3) {
+        int base = i * RECORD_BYTES;
+        int cmp = Long.compareUnsigned(index.getLong(base), word0);
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(index.getLong(base + 8), word1);
+        }
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(index.getLong(base + 16), word2);
+        }
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(index.getLong(base + 24), word3);
+        }
+        return cmp;
+    }
+
+    // The big-endian long written as hex digits 16 * word to 16 * word + 15 of a key
+    private static long parseWord(String key, int word) {
+        long value = 0;
+        for (int i = word * 16; i < word * 16 + 16; i++) {
+            value = value << 4 | Character.digit(key.charAt(i), 16);
+        }
+        return value;
+    }
+
+    private byte[] keyAt(int i) {
+        byte[] key = new byte[32];
+        index.get(i * RECORD_BYTES, key);
+        return key;
+    }
+
+    private long offsetAt(int i) {
+        return index.getLong(i * RECORD_BYTES + 32);
+    }
+
+    private long lengthAt(int i) {
+        return index.getLong(i * RECORD_BYTES + 40);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Writes the entries in {@code cacheDir}, and those of {@code previous} (nullable) not in it, to {@code target}.
+     * Entries that do not match their SHA-256 are left out. The file is replaced atomically, so {@code target} may be
+     * the file {@code previous} was opened from, and a proxy using the cache directory may keep running meanwhile.
+     */
+    static Export export(Path cacheDir, CacheSnapshot previous, Path target) throws IOException {
+        Path parent = target.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        List<Record> records = new ArrayList<>();
+        try (FileChannel out = FileChannel.open(
+                tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            out.position(HEADER_BYTES);
+            Set<String> keys = new HashSet<>();
+            for (Path file : entryFiles(cacheDir)) {
+                ByteBuffer entry;
+                try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                    entry = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                } catch (NoSuchFileException e) {
+                    // Evicted since the directory was listed
+                    continue;
+                }
+                if (ArtifactCache.verify(entry)) {
+                    String key = file.getFileName().toString();
+                    keys.add(key);
+                    records.add(append(out, HEX.parseHex(key), entry));
+                }
+            }
+            if (previous != null) {
+                for (int i = 0; i < previous.count; i++) {
+                    byte[] key = previous.keyAt(i);
+                    ByteBuffer entry = keys.contains(HEX.formatHex(key)) ? null : previous.verifiedEntryAt(i);
+                    if (entry != null) {
+                        records.add(append(out, key, entry));
+                    }
+                }
+            }
+            long indexOffset = out.position();
+
+            records.sort((a, b) -> Arrays.compareUnsigned(a.key, b.key));
+            ByteBuffer index = ByteBuffer.allocate(records.size() * RECORD_BYTES);
+            for (Record record : records) {
+                index.put(record.key).putLong(record.offset).putLong(record.length);
+            }
+            writeFully(out, index.flip());
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(records.size())
+                    .putInt(0)
+                    .putLong(indexOffset);
+            out.position(0);
+            writeFully(out, header.flip());
+            out.force(true);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new Export(records.size(), indexOffset - HEADER_BYTES);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Entries written by {@link #export} and the bytes they take.
+     */
+    record Export(int entries, long bytes) {}
+
+    private record Record(byte[] key, long offset, long length) {}
+
+    private static List<Path> entryFiles(Path cacheDir) throws IOException {
+        if (!Files.isDirectory(cacheDir)) {
+            return List.of();
+        }
+        try (Stream<Path> stream = Files.list(cacheDir)) {
+            // Entry files are named by the hex SHA-256 of their URL; anything else is a download in progress
+            return stream.filter(file -> isKey(file.getFileName().toString()) && Files.isRegularFile(file))
+                    .toList();
+        }
+    }
+
+    private static boolean isKey(String name) {
+        if (name.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.digit(name.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Record append(FileChannel out, byte[] key, ByteBuffer entry) throws IOException {
+        long offset = out.position();
+        long length = entry.remaining();
+        writeFully(out, entry);
+        return new Record(key, offset, length);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
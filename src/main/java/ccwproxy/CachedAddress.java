@@ -0,0 +1,82 @@
+package ccwproxy;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A host and port whose resolved address is cached for a fixed TTL.
+ *
+ * <p>LittleProxy asks for the upstream address on the event loop for every new server connection, so lookups must not
+ * block there. The address is resolved once up front; after the TTL expires the stale address keeps being returned
+ * while a background thread refreshes it. A failed refresh keeps the last good address.
+ */
+final class CachedAddress {
+
+    /**
+     * Resolves a host name; {@link InetAddress#getByName} outside of tests.
+     */
+    @FunctionalInterface
+    interface Lookup {
+        InetAddress lookup(String host) throws UnknownHostException;
+    }
+
+    private final String host;
+    private final int port;
+    private final long ttlNanos;
+    private final Lookup lookup;
+    private final AccessLog log;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private volatile InetSocketAddress address;
+    private volatile long expiresAt;
+
+    CachedAddress(String host, int port, Duration ttl, AccessLog log) {
+        this(host, port, ttl, log, InetAddress::getByName);
+    }
+
+    CachedAddress(String host, int port, Duration ttl, AccessLog log, Lookup lookup) {
+        this.host = host;
+        this.port = port;
+        this.ttlNanos = ttl.toNanos();
+        this.lookup = lookup;
+        this.log = log;
+        refresh();
+    }
+
+    /**
+     * Returns the cached address, scheduling a refresh if it has expired.
+     */
+    InetSocketAddress get() {
+        if (System.nanoTime() - expiresAt >= 0 && refreshing.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("ccw-proxy-dns").start(() -> {
+                try {
+                    refresh();
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+        }
+        return address;
+    }
+
+    private void refresh() {
+        try {
+            address = new InetSocketAddress(lookup.lookup(host), port);
+        } catch (UnknownHostException e) {
+            if (address == null) {
+                // Leave resolution to the connect attempt until a lookup succeeds
+                address = InetSocketAddress.createUnresolved(host, port);
+            }
+            log.message("DNS lookup failed for upstream " + host + ": " + e.getMessage());
+        }
+        expiresAt = System.nanoTime() + ttlNanos;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
@@ -0,0 +1,243 @@
+package ccwproxy;
+
+import io.netty.util.NetUtil;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+/**
+ * Local certificate authority used to intercept TLS for configured repository hosts.
+ *
+ * <p>The CA key and certificate are generated on first use and kept in {@code ca.p12}; the certificate is also written
+ * to {@code ca.pem} so it can be imported into a truststore. Leaf certificates are minted once per host and cached
+ * together with their {@link SSLContext}, so the signing cost is only paid on the first connection to each host.
+ */
+final class CertificateAuthority {
+
+    static final String CA_KEYSTORE = "ca.p12";
+    static final String CA_CERTIFICATE = "ca.pem";
+
+    private static final char[] KEYSTORE_PASSWORD = "ccw-proxy".toCharArray();
+    private static final String ALIAS = "ccw-proxy-ca";
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+
+    private final PrivateKey caKey;
+    private final X509Certificate caCertificate;
+    // One key pair shared by all leaf certificates; generating RSA keys is the expensive part of minting
+    private final KeyPair leafKeyPair;
+    private final ConcurrentHashMap<String, SSLContext> contexts = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    private CertificateAuthority(PrivateKey caKey, X509Certificate caCertificate) throws GeneralSecurityException {
+        this.caKey = caKey;
+        this.caCertificate = caCertificate;
+        this.leafKeyPair = newKeyPair();
+    }
+
+    /**
+     * Loads the CA from {@code dir}, generating and saving a new one if none exists.
+     */
+    static CertificateAuthority loadOrCreate(Path dir) throws IOException, GeneralSecurityException {
+        Path keystoreFile = dir.resolve(CA_KEYSTORE);
+        if (Files.exists(keystoreFile)) {
+            KeyStore keystore = KeyStore.getInstance("PKCS12");
+            try (InputStream in = Files.newInputStream(keystoreFile)) {
+                keystore.load(in, KEYSTORE_PASSWORD);
+            }
+            PrivateKey key = (PrivateKey) keystore.getKey(ALIAS, KEYSTORE_PASSWORD);
+            X509Certificate certificate = (X509Certificate) keystore.getCertificate(ALIAS);
+            return new CertificateAuthority(key, certificate);
+        }
+
+        KeyPair caKeyPair = newKeyPair();
+        X500Name subject = new X500Name("CN=ccw-proxy local CA, O=ccw-proxy");
+        Instant now = Instant.now();
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+                        subject,
+                        new BigInteger(64, new SecureRandom()),
+                        Date.from(now.minus(Duration.ofDays(1))),
+                        Date.from(now.plus(Duration.ofDays(3650))),
+                        subject,
+                        caKeyPair.getPublic())
+                .addExtension(Extension.basicConstraints, true, new BasicConstraints(0))
+                .addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign))
+                .addExtension(
+                        Extension.subjectKeyIdentifier,
+                        false,
+                        new JcaX509ExtensionUtils().createSubjectKeyIdentifier(caKeyPair.getPublic()));
+        X509Certificate certificate = sign(builder, caKeyPair.getPrivate());
+
+        Files.createDirectories(dir, ownerOnly(dir, "rwx------"));
+        KeyStore keystore = KeyStore.getInstance("PKCS12");
+        keystore.load(null, null);
+        keystore.setKeyEntry(ALIAS, caKeyPair.getPrivate(), KEYSTORE_PASSWORD, new Certificate[] {certificate});
+        // The key is readable by the owner only from the moment the file exists, and appears under its name complete
+        Path tmp = keystoreFile.resolveSibling(CA_KEYSTORE + ".tmp");
+        Files.deleteIfExists(tmp);
+        try (OutputStream out = Channels.newOutputStream(Files.newByteChannel(
+                tmp,
+                EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE),
+                ownerOnly(dir, "rw-------")))) {
+            keystore.store(out, KEYSTORE_PASSWORD);
+        }
+        Files.move(tmp, keystoreFile, StandardCopyOption.ATOMIC_MOVE);
+        Files.writeString(dir.resolve(CA_CERTIFICATE), toPem(certificate));
+        return new CertificateAuthority(caKeyPair.getPrivate(), certificate);
+    }
+
+    /**
+     * {@code permissions} as an attribute for creating a file in {@code dir}, or none if its file system is not POSIX.
+     */
+    private static FileAttribute<?>[] ownerOnly(Path dir, String permissions) {
+        if (!dir.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            return new FileAttribute<?>[0];
+        }
+        FileAttribute<?> attribute = PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(permissions));
+        return new FileAttribute<?>[] {attribute};
+    }
+
+    X509Certificate certificate() {
+        return caCertificate;
+    }
+
+    /**
+     * Returns a client-side {@link SSLContext} that trusts only certificates issued by this authority.
+     */
+    SSLContext clientContext() throws GeneralSecurityException {
+        try {
+            KeyStore truststore = KeyStore.getInstance("PKCS12");
+            truststore.load(null, null);
+            truststore.setCertificateEntry("ca", caCertificate);
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init(truststore);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, tmf.getTrustManagers(), null);
+            return context;
+        } catch (IOException e) {
+            throw new GeneralSecurityException(e);
+        }
+    }
+
+    /**
+     * Returns a server-side {@link SSLContext} presenting a certificate for {@code host}, minting it on first use.
+     */
+    SSLContext contextFor(String host) {
+        return contexts.computeIfAbsent(host, this::newContext);
+    }
+
+    private SSLContext newContext(String host) {
+        try {
+            X509Certificate leaf = mintLeaf(host);
+            KeyStore keystore = KeyStore.getInstance("PKCS12");
+            keystore.load(null, null);
+            keystore.setKeyEntry(
+                    host, leafKeyPair.getPrivate(), KEYSTORE_PASSWORD, new Certificate[] {leaf, caCertificate});
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(keystore, KEYSTORE_PASSWORD);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(kmf.getKeyManagers(), null, null);
+            return context;
+        } catch (IOException | GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to mint certificate for " + host, e);
+        }
+    }
+
+    /**
+     * Mints a certificate for {@code host}: a name, or an IP literal, with or without the brackets around IPv6.
+     */
+    X509Certificate mintLeaf(String host) throws IOException, GeneralSecurityException {
+        Instant now = Instant.now();
+        String subject = host.startsWith("[") && host.endsWith("]") ? host.substring(1, host.length() - 1) : host;
+        // Parses literals only; names are never resolved
+        InetAddress address = NetUtil.createInetAddressFromIpAddressString(subject);
+        GeneralName name = address != null
+                ? new GeneralName(GeneralName.iPAddress, new DEROctetString(address.getAddress()))
+                : new GeneralName(GeneralName.dNSName, subject);
+        JcaX509ExtensionUtils extensions = new JcaX509ExtensionUtils();
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+                        caCertificate,
+                        new BigInteger(64, random),
+                        Date.from(now.minus(Duration.ofDays(1))),
+                        Date.from(now.plus(Duration.ofDays(365))),
+                        new X500Name("CN=" + subject),
+                        leafKeyPair.getPublic())
+                .addExtension(Extension.basicConstraints, true, new BasicConstraints(false))
+                .addExtension(
+                        Extension.keyUsage, true, new KeyUsage(KeyUsage.digitalSignature | KeyUsage.keyEncipherment))
+                .addExtension(Extension.extendedKeyUsage, false, new ExtendedKeyUsage(KeyPurposeId.id_kp_serverAuth))
+                .addExtension(Extension.subjectAlternativeName, false, new GeneralNames(name))
+                .addExtension(
+                        Extension.subjectKeyIdentifier,
+                        false,
+                        extensions.createSubjectKeyIdentifier(leafKeyPair.getPublic()))
+                .addExtension(
+                        Extension.authorityKeyIdentifier,
+                        false,
+                        extensions.createAuthorityKeyIdentifier(caCertificate));
+        return sign(builder, caKey);
+    }
+
+    private static X509Certificate sign(X509v3CertificateBuilder builder, PrivateKey signingKey)
+            throws GeneralSecurityException {
+        try {
+            return new JcaX509CertificateConverter()
+                    .getCertificate(builder.build(new JcaContentSignerBuilder(SIGNATURE_ALGORITHM).build(signingKey)));
+        } catch (OperatorCreationException e) {
+            throw new GeneralSecurityException(e);
+        }
+    }
+
+    private static KeyPair newKeyPair() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    static String toPem(X509Certificate certificate) throws GeneralSecurityException {
+        Base64.Encoder encoder = Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII));
+        return "-----BEGIN CERTIFICATE-----\n" + encoder.encodeToString(certificate.getEncoded())
+                + "\n-----END CERTIFICATE-----\n";
+    }
+}
@@ -0,0 +1,362 @@
+package ccwproxy;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.ReferenceCountUtil;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adaptive per-host limit on concurrent upstream requests.
+ *
+ * <p>Each destination host gets an AIMD limit: every response that arrives in reasonable time raises it by about one
+ * per round of requests, while a throttling status (429, 502, 503, 504), a timeout, a failed connection or a response
+ * head much slower than the host's baseline latency cuts it by {@value #DECREASE_FACTOR}. Requests over the limit wait
+ * in a bounded FIFO queue per host; when that is full they are answered with 503 right away instead of adding load.
+ *
+ * <p>LittleProxy cannot pause a request inside a filter, so a waiting request is answered with a placeholder that never
+ * reaches the client (as for coalesced followers) and parked in a per-connection {@link Gate}. The gate stops reading
+ * from the client and, once a permit is free, feeds the parked request back into LittleProxy.
+ *
+ * <p>Only plain, keep-alive {@code GET}/{@code HEAD} requests are limited; opaque {@code CONNECT} tunnels carry
+ * requests the proxy cannot see.
+ */
+final class ConcurrencyLimiter {
+
+    static final int DEFAULT_INITIAL_LIMIT = 32;
+    static final int DEFAULT_MAX_LIMIT = 256;
+    static final int DEFAULT_QUEUE_SIZE = 512;
+
+    private static final double MIN_LIMIT = 1;
+    private static final double DECREASE_FACTOR = 0.7;
+    // A response head this many times slower than the baseline counts as congestion
+    private static final double LATENCY_TOLERANCE = 4;
+    private static final String GATE_NAME = "ccw-limit";
+
+    final LongAdder rejected = new LongAdder();
+
+    private final int initialLimit;
+    private final int maxLimit;
+    private final int queueSize;
+    private final ConcurrentHashMap<String, HostLimit> hosts = new ConcurrentHashMap<>();
+
+    ConcurrencyLimiter(int initialLimit, int maxLimit, int queueSize) {
+        this.initialLimit = initialLimit;
+        this.maxLimit = maxLimit;
+        this.queueSize = queueSize;
+    }
+
+    static boolean isLimited(HttpRequest request) {
+        HttpMethod method = request.method();
+        return (HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method)) && HttpUtil.isKeepAlive(request);
+    }
+
+    /**
+     * Response for a request that found its host's queue full.
+     */
+    static FullHttpResponse queueFull() {
+        FullHttpResponse response =
+                new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.SERVICE_UNAVAILABLE);
+        response.headers().set(HttpHeaderNames.RETRY_AFTER, 1);
+        HttpUtil.setContentLength(response, 0);
+        return response;
+    }
+
+    /**
+     * True if the request being read on {@code channel} is a parked one being fed back, which has already been
+     * counted and logged.
+     */
+    static boolean isResuming(Channel channel) {
+        Gate gate = (Gate) channel.pipeline().get(GATE_NAME);
+        return gate != null && gate.granted != null;
+    }
+
+    /**
+     * Returns the gate for {@code channel}, installing it before LittleProxy's handler on first use.
+     */
+    static Gate gate(Channel channel) {
+        Gate gate = (Gate) channel.pipeline().get(GATE_NAME);
+        if (gate == null) {
+            gate = new Gate();
+            channel.pipeline().addBefore("handler", GATE_NAME, gate);
+        }
+        return gate;
+    }
+
+    /**
+     * Outcome of asking for a permit.
+     */
+    enum Admission {
+        ADMITTED,
+        QUEUED,
+        REJECTED
+    }
+
+    /**
+     * Asks for a permit to send {@code request} to {@code host}. If admitted, the permit becomes {@code gate}'s
+     * {@link Gate#current() current} one until {@link Gate#release} is called. If queued, the caller must short-circuit
+     * with a placeholder; the request is fed back through LittleProxy once a permit is free, and
+     * {@link Gate#takeGranted} then returns it.
+     */
+    Admission acquire(String host, Gate gate, HttpRequest request) {
+        HostLimit limit = host(host);
+        synchronized (limit) {
+            if (limit.inFlight < (int) limit.limit) {
+                limit.inFlight++;
+                gate.current = new Permit(limit);
+                return Admission.ADMITTED;
+            }
+            if (limit.waiting.size() >= queueSize) {
+                rejected.increment();
+                return Admission.REJECTED;
+            }
+            gate.park(request, limit);
+            limit.waiting.add(gate);
+            return Admission.QUEUED;
+        }
+    }
+
+    private HostLimit host(String host) {
+        HostLimit limit = hosts.get(host);
+        if (limit != null) {
+            return limit;
+        }
+        if (hosts.size() >= Metrics.MAX_HOSTS) {
+            return hosts.computeIfAbsent(Metrics.OTHER_HOSTS, key -> new HostLimit());
+        }
+        return hosts.computeIfAbsent(host, key -> new HostLimit());
+    }
+
+    Map<String, HostLimit> hosts() {
+        return hosts;
+    }
+
+    /**
+     * Limit state for one destination host. All fields are guarded by the instance's monitor.
+     */
+    final class HostLimit {
+        private double limit = initialLimit;
+        private int inFlight;
+        private long baselineNanos;
+        private long lastDecreaseNanos = System.nanoTime();
+        private final ArrayDeque<Gate> waiting = new ArrayDeque<>();
+
+        synchronized int limit() {
+            return (int) limit;
+        }
+
+        synchronized int inFlight() {
+            return inFlight;
+        }
+
+        synchronized int queued() {
+            return waiting.size();
+        }
+
+        private synchronized void onResponse(long startNanos, long latencyNanos, boolean throttled) {
+            if (baselineNanos == 0 || latencyNanos < baselineNanos) {
+                baselineNanos = latencyNanos;
+            } else {
+                // Let the baseline drift up slowly so one lucky fast response does not pin it
+                baselineNanos += (latencyNanos - baselineNanos) >> 6;
+            }
+            if (throttled || latencyNanos > LATENCY_TOLERANCE * baselineNanos) {
+                decrease(startNanos);
+            } else if (inFlight >= limit / 2) {
+                // Only grow while the limit is actually being used
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+
+        private synchronized void decrease(long startNanos) {
+            // Requests sent before the last decrease saw the old limit; one round of failures is one decrease
+            if (startNanos - lastDecreaseNanos > 0) {
+                limit = Math.max(MIN_LIMIT, limit * DECREASE_FACTOR);
+                lastDecreaseNanos = System.nanoTime();
+            }
+        }
+
+        private void release() {
+            synchronized (this) {
+                inFlight--;
+            }
+            grantWaiting();
+        }
+
+        /**
+         * Hands free permits to waiting requests, oldest first. Each resumes on its own connection's event loop.
+         */
+        private void grantWaiting() {
+            while (true) {
+                Gate next;
+                synchronized (this) {
+                    if (inFlight >= (int) limit || waiting.isEmpty()) {
+                        return;
+                    }
+                    next = waiting.poll();
+                    if (!next.channel().isActive()) {
+                        continue;
+                    }
+                    inFlight++;
+                }
+                Permit permit = new Permit(this);
+                next.channel().eventLoop().execute(() -> next.resume(permit));
+            }
+        }
+
+        private synchronized void cancel(Gate gate) {
+            waiting.remove(gate);
+        }
+    }
+
+    /**
+     * Permission for one request to be in flight. Released exactly once.
+     */
+    static final class Permit {
+        private final HostLimit limit;
+        private final long startNanos = System.nanoTime();
+        private boolean released;
+
+        private Permit(HostLimit limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * Feeds the response head's status and latency into the host's limit.
+         */
+        void onResponse(int status) {
+            boolean throttled = status == 429 || status == 502 || status == 503 || status == 504;
+            limit.onResponse(startNanos, System.nanoTime() - startNanos, throttled);
+            limit.grantWaiting();
+        }
+
+        /**
+         * The request timed out or could not be sent.
+         */
+        void onFailure() {
+            limit.decrease(startNanos);
+        }
+
+        private void release() {
+            if (!released) {
+                released = true;
+                limit.release();
+            }
+        }
+    }
+
+    /**
+     * Per-connection state: the permit of the request currently in flight, and a parked request waiting for one.
+     * Confined to the channel's event loop.
+     */
+    static final class Gate extends ChannelInboundHandlerAdapter {
+        private ChannelHandlerContext ctx;
+        private Permit current;
+        private Permit granted;
+        private HttpRequest parked;
+        private HostLimit parkedAt;
+        private final List<Object> buffered = new ArrayList<>(2);
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            this.ctx = ctx;
+        }
+
+        Channel channel() {
+            return ctx.channel();
+        }
+
+        /**
+         * Permit granted to a request that was parked and has just been fed back, or null.
+         */
+        Permit takeGranted() {
+            Permit permit = granted;
+            granted = null;
+            if (permit != null) {
+                current = permit;
+            }
+            return permit;
+        }
+
+        /**
+         * Permit held by the request currently in flight on this connection, or null.
+         */
+        Permit current() {
+            return current;
+        }
+
+        /**
+         * Ends the request currently in flight, letting the next waiting request for its host proceed.
+         */
+        void release() {
+            if (current != null) {
+                current.release();
+                current = null;
+            }
+        }
+
+        private void park(HttpRequest request, HostLimit limit) {
+            parked = request;
+            parkedAt = limit;
+            ctx.channel().config().setAutoRead(false);
+        }
+
+        private void resume(Permit permit) {
+            if (!ctx.channel().isActive() || parked == null) {
+                permit.release();
+                return;
+            }
+            HttpRequest request = parked;
+            parked = null;
+            parkedAt = null;
+            granted = permit;
+            ctx.fireChannelRead(request);
+            for (Object msg : buffered) {
+                ctx.fireChannelRead(msg);
+            }
+            buffered.clear();
+            ctx.channel().config().setAutoRead(true);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            if (parked != null) {
+                // The rest of the parked request (usually its empty last content) waits with it
+                buffered.add(msg);
+            } else {
+                ctx.fireChannelRead(msg);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            release();
+            if (granted != null) {
+                granted.release();
+                granted = null;
+            }
+            if (parkedAt != null) {
+                parkedAt.cancel(this);
+            }
+            parked = null;
+            for (Object msg : buffered) {
+                ReferenceCountUtil.release(msg);
+            }
+            buffered.clear();
+            super.channelInactive(ctx);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package ccwproxy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Applies a changed configuration to the running proxy, and owns the admin endpoint, whose address is part of it.
+ * Reloads are serialized on this instance.
+ */
+final class ConfigReloader {
+
+    interface AdminFactory {
+        AdminServer start(InetSocketAddress address) throws IOException;
+    }
+
+    private final AccessLog log;
+    private final Metrics metrics;
+    private final UpstreamPool upstreamPool;
+    private final ProxyFiltersSource filtersSource;
+    private final BufferBudget budget;
+    private final ProxyListener listener;
+    // Null if CCW_PROXY_READY_FILE is not set
+    private final ReadyFile readyFile;
+    private final AdminFactory adminFactory;
+
+    // What the process started with, and what settings that can be reloaded were last reloaded from
+    private final ProxyConfig startupConfig;
+    private volatile ProxyConfig config;
+    private Map<ProxyConfig.Upstream, UpstreamProxy> upstreams;
+    private AdminServer admin;
+    // Addresses as configured; they only change when binding the new one succeeded
+    private InetSocketAddress listenAddress;
+    private InetSocketAddress adminAddress;
+
+    ConfigReloader(
+            ProxyConfig config,
+            AccessLog log,
+            Metrics metrics,
+            Map<ProxyConfig.Upstream, UpstreamProxy> upstreams,
+            UpstreamPool upstreamPool,
+            ProxyFiltersSource filtersSource,
+            BufferBudget budget,
+            ProxyListener listener,
+            ReadyFile readyFile,
+            AdminFactory adminFactory) {
+        this.startupConfig = config;
+        this.config = config;
+        this.log = log;
+        this.metrics = metrics;
+        this.upstreams = upstreams;
+        this.upstreamPool = upstreamPool;
+        this.filtersSource = filtersSource;
+        this.budget = budget;
+        this.listener = listener;
+        this.readyFile = readyFile;
+        this.adminFactory = adminFactory;
+        this.listenAddress = new InetSocketAddress(config.listenHost, config.listenPort);
+    }
+
+    /**
+     * Upstream proxies for {@code config}, resolved once and shared across all requests. Upstreams already in
+     * {@code current} with the same address, credentials and DNS TTL are kept, with their health and latency.
+     */
+    static Map<ProxyConfig.Upstream, UpstreamProxy> upstreamProxies(
+            ProxyConfig config, Map<ProxyConfig.Upstream, UpstreamProxy> current, AccessLog log, Metrics metrics) {
+        Map<ProxyConfig.Upstream, UpstreamProxy> upstreams = new LinkedHashMap<>();
+        for (ProxyConfig.Upstream upstream : config.upstreams) {
+            UpstreamProxy proxy = current.get(upstream);
+            if (proxy == null) {
+                proxy = new UpstreamProxy(
+                        new CachedAddress(upstream.host(), upstream.port(), config.dnsTtl, log),
+                        upstream.basicAuth(),
+                        log,
+                        metrics);
+            }
+            upstreams.put(upstream, proxy);
+        }
+        return upstreams;
+    }
+
+    ProxyConfig config() {
+        return config;
+    }
+
+    /**
+     * Records in the ready file, if any, that connections are accepted.
+     */
+    synchronized void ready() {
+        if (readyFile != null) {
+            readyFile.write(listenAddress.getHostString(), listener.address().getPort());
+        }
+    }
+
+    /**
+     * Starts the admin endpoint, if configured, waiting for a previous instance to give up its port.
+     */
+    synchronized void startAdmin() {
+        if (config.adminHost == null) {
+            return;
+        }
+        InetSocketAddress address = new InetSocketAddress(config.adminHost, config.adminPort);
+        try {
+            // A previous instance gives up the admin port as soon as it starts draining
+            admin = ProxyListener.bindWithRetry(address, () -> adminFactory.start(address));
+            adminAddress = address;
+            System.out.println(
+                    "[ccw-proxy] metrics on http://" + config.adminHost + ":" + config.adminPort + "/metrics");
+        } catch (IOException e) {
+            System.out.println("[ccw-proxy] admin endpoint disabled: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the ready file and stops the admin endpoint, letting a replacement bind its port, which cannot be shared.
+     */
+    synchronized void withdraw() {
+        if (readyFile != null) {
+            readyFile.delete();
+        }
+        if (admin != null) {
+            admin.stop();
+            admin = null;
+        }
+    }
+
+    /**
+     * Re-reads {@code environment} and the config file, applies the result and reports what changed. An invalid
+     * configuration is reported and ignored.
+     */
+    synchronized void reload(String trigger, Map<String, String> environment) {
+        ProxyConfig next;
+        try {
+            next = ProxyConfig.fromEnvironment(ProxyConfig.withConfigFile(environment));
+        } catch (IllegalArgumentException e) {
+            System.out.println("[ccw-proxy] " + trigger + ": keeping the current configuration: " + e.getMessage());
+            return;
+        }
+        List<String> restart = startupConfig.restartRequired(next);
+        List<String> changes = reconfigure(next);
+        System.out.println("[ccw-proxy] " + trigger + ": "
+                + (changes.isEmpty() ? "configuration unchanged" : "applied " + String.join("; ", changes)));
+        if (!restart.isEmpty()) {
+            System.out.println("[ccw-proxy] restart to apply " + String.join(", ", restart));
+        }
+    }
+
+    /**
+     * Applies everything in {@code next} that can change while running: upstreams and their credentials, direct
+     * routes, the listen and admin addresses, the idle timeout, buffer sizes, verbosity, the slow threshold and the
+     * drain timeout. Open connections keep the upstream, timeouts and buffer sizes they started with. Returns a
+     * description of each change.
+     */
+    synchronized List<String> reconfigure(ProxyConfig next) {
+        ProxyConfig current = config;
+        List<String> changes = new ArrayList<>();
+        if (!next.upstreams.equals(current.upstreams)
+                || !next.dnsTtl.equals(current.dnsTtl)
+                || !next.directRoutes.toString().equals(current.directRoutes.toString())) {
+            upstreams = upstreamProxies(next, next.dnsTtl.equals(current.dnsTtl) ? upstreams : Map.of(), log, metrics);
+            upstreamPool.reconfigure(List.copyOf(upstreams.values()), next.directRoutes);
+            upstreamPool.startProbing();
+            changes.add("upstream "
+                    + next.upstreams.stream()
+                            .map(ProxyConfig.Upstream::toString)
+                            .collect(Collectors.joining(", "))
+                    + (next.directRoutes.isEmpty() ? "" : ", direct to " + next.directRoutes));
+        }
+        InetSocketAddress nextListen = new InetSocketAddress(next.listenHost, next.listenPort);
+        if (!nextListen.equals(listenAddress) && listener.accepting()) {
+            try {
+                listener.move(nextListen);
+                listenAddress = nextListen;
+                ready();
+                changes.add("listening on " + next.listenHost + ":" + listener.address().getPort());
+            } catch (RuntimeException e) {
+                System.out.println("[ccw-proxy] cannot listen on " + next.listenHost + ":" + next.listenPort + ": "
+                        + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+            }
+        }
+        InetSocketAddress nextAdmin =
+                next.adminHost == null ? null : new InetSocketAddress(next.adminHost, next.adminPort);
+        if (!Objects.equals(nextAdmin, adminAddress) && listener.accepting()) {
+            try {
+                AdminServer previous = admin;
+                admin = nextAdmin == null ? null : adminFactory.start(nextAdmin);
+                adminAddress = nextAdmin;
+                if (previous != null) {
+                    previous.stop();
+                }
+                changes.add(
+                        nextAdmin == null
+                                ? "admin endpoint off"
+                                : "metrics on http://" + next.adminHost + ":" + next.adminPort + "/metrics");
+            } catch (IOException e) {
+                System.out.println("[ccw-proxy] cannot serve metrics on " + next.adminHost + ":" + next.adminPort + ": "
+                        + e.getMessage());
+            }
+        }
+        if (!next.idleTimeout.equals(current.idleTimeout)) {
+            listener.setIdleTimeout(next.idleTimeout);
+            changes.add("idle timeout " + next.idleTimeout.toSeconds() + "s");
+        }
+        if (next.connectionBufferBytes != current.connectionBufferBytes
+                || next.bufferLimitBytes != current.bufferLimitBytes) {
+            budget.resize(next.connectionBufferBytes, next.bufferLimitBytes);
+            changes.add("buffers " + next.connectionBufferBytes / 1024 + " KB per connection, "
+                    + next.bufferLimitBytes / (1024 * 1024) + " MB in total");
+        }
+        if (next.verbose != current.verbose || !next.slowThreshold.equals(current.slowThreshold)) {
+            filtersSource.configure(next.verbose, next.slowThreshold.toNanos());
+            changes.add("verbose " + (next.verbose ? "on" : "off") + ", slow threshold "
+                    + next.slowThreshold.toSeconds() + "s");
+        }
+        if (!next.drainTimeout.equals(current.drainTimeout)) {
+            changes.add("drain timeout " + next.drainTimeout.toSeconds() + "s");
+        }
+        config = next;
+        return changes;
+    }
+}
@@ -0,0 +1,73 @@
+package ccwproxy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Notices changes to the config file by polling its modification time and size. Polling rather than watching the
+ * directory also catches editors and tools that replace the file instead of writing to it, and touching the file is
+ * enough to ask for a reload.
+ */
+final class ConfigWatcher implements AutoCloseable {
+
+    private final Path file;
+    private final Duration interval;
+    private String stamp;
+    private Thread thread;
+
+    ConfigWatcher(Path file, Duration interval) {
+        this.file = file;
+        this.interval = interval;
+        this.stamp = stampOf(file);
+    }
+
+    /**
+     * Returns whether the file changed since it was last checked, including being created or deleted.
+     */
+    synchronized boolean changed() {
+        String current = stampOf(file);
+        if (current.equals(stamp)) {
+            return false;
+        }
+        stamp = current;
+        return true;
+    }
+
+    /**
+     * Runs {@code onChange} on a daemon thread after each change, checking every interval until closed.
+     */
+    synchronized void start(Runnable onChange) {
+        thread = Thread.ofPlatform().name("ccw-proxy-config").daemon().start(() -> {
+            while (true) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(interval.toMillis());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (changed()) {
+                    onChange.run();
+                }
+            }
+        });
+    }
+
+    @Override
+    public synchronized void close() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private static String stampOf(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.lastModifiedTime() + "/" + attributes.size();
+        } catch (IOException e) {
+            return "missing";
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package ccwproxy;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * What a POM or Gradle module metadata file says its component needs next, as far as the file alone can tell.
+ *
+ * <p>Only coordinates that are certain are kept: versions must be literal, or come from a property or
+ * {@code dependencyManagement} entry in the same POM. Test, provided, system and optional dependencies are skipped, as
+ * are version ranges and snapshots. Anything inherited from a parent is left for when the parent itself is parsed.
+ */
+final class DependencyMetadata {
+
+    // Comment Gradle leaves in POMs published alongside module metadata
+    private static final String GRADLE_METADATA_MARKER = "do_not_remove: published-with-gradle-metadata";
+
+    /**
+     * A module version in a Maven layout repository.
+     */
+    record Coordinates(String group, String module, String version) {
+        /**
+         * Path of one of this version's files below the repository root.
+         */
+        String path(String extension) {
+            return group.replace('.', '/') + "/" + module + "/" + version + "/" + module + "-" + version + "."
+                    + extension;
+        }
+    }
+
+    // Null if the file does not say which component it describes
+    final Coordinates component;
+    final String packaging;
+    // The POM says a Gradle module metadata file was published next to it
+    final boolean gradleMetadata;
+    // Parent POMs and imported BOMs; only their POMs are needed
+    final List<Coordinates> boms;
+    final List<Coordinates> dependencies;
+    // Module metadata files a variant points to with "available-at"
+    final List<Coordinates> redirects;
+
+    private DependencyMetadata(
+            Coordinates component,
+            String packaging,
+            boolean gradleMetadata,
+            List<Coordinates> boms,
+            List<Coordinates> dependencies,
+            List<Coordinates> redirects) {
+        this.component = component;
+        this.packaging = packaging;
+        this.gradleMetadata = gradleMetadata;
+        this.boms = boms;
+        this.dependencies = dependencies;
+        this.redirects = redirects;
+    }
+
+    /**
+     * Parses a POM, throwing {@link IllegalArgumentException} if it is not well-formed XML.
+     */
+    static DependencyMetadata fromPom(byte[] body, int length) {
+        PomReader pom = new PomReader();
+        // Factories are not guaranteed to be thread-safe; the JDK default one is cheap to create
+        XMLInputFactory factory = XMLInputFactory.newDefaultFactory();
+        // Never resolve DTDs or external entities from untrusted POMs
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            XMLStreamReader reader = factory.createXMLStreamReader(new ByteArrayInputStream(body, 0, length));
+            try {
+                pom.read(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("Malformed POM: " + e.getMessage(), e);
+        }
+        return pom.result();
+    }
+
+    /**
+     * Parses a Gradle module metadata file, throwing {@link IllegalArgumentException} if it is not well-formed JSON.
+     */
+    @SuppressWarnings("unchecked")
+    static DependencyMetadata fromModule(byte[] body, int length) {
+        Object root = new JsonReader(new String(body, 0, length, StandardCharsets.UTF_8)).readDocument();
+        if (!(root instanceof Map)) {
+            throw new IllegalArgumentException("Malformed module metadata: not an object");
+        }
+        Coordinates component = coordinatesOf(((Map<String, Object>) root).get("component"));
+        List<Coordinates> dependencies = new ArrayList<>();
+        List<Coordinates> redirects = new ArrayList<>();
+        if (((Map<String, Object>) root).get("variants") instanceof List<?> variants) {
+            for (Object variant : variants) {
+                if (!(variant instanceof Map<?, ?> fields) || !isJavaVariant(fields.get("attributes"))) {
+                    continue;
+                }
+                Coordinates redirect = coordinatesOf(fields.get("available-at"));
+                if (redirect != null) {
+                    redirects.add(redirect);
+                }
+                if (fields.get("dependencies") instanceof List<?> declared) {
+                    for (Object dependency : declared) {
+                        Coordinates coordinates = coordinatesOf(dependency);
+                        if (coordinates != null && !dependencies.contains(coordinates)) {
+                            dependencies.add(coordinates);
+                        }
+                    }
+                }
+            }
+        }
+        return new DependencyMetadata(component, "jar", false, List.of(), dependencies, redirects);
+    }
+
+    /**
+     * True for variants a JVM build may select. Kotlin/JS, native and similar variants would only waste bandwidth.
+     */
+    private static boolean isJavaVariant(Object attributes) {
+        if (!(attributes instanceof Map<?, ?> map)) {
+            return true;
+        }
+        Object usage = map.get("org.gradle.usage");
+        return !(usage instanceof String) || ((String) usage).startsWith("java-");
+    }
+
+    private static Coordinates coordinatesOf(Object value) {
+        if (!(value instanceof Map<?, ?> map)) {
+            return null;
+        }
+        Object version = map.get("version");
+        if (version instanceof Map<?, ?> constraint) {
+            // Rich versions: a strict or required version is what resolution will most likely pick
+            version = constraint.get("strictly") != null
+                    ? constraint.get("strictly")
+                    : constraint.get("requires") != null ? constraint.get("requires") : constraint.get("prefer");
+        }
+        if (map.get("group") instanceof String group
+                && map.get("module") instanceof String module
+                && version instanceof String literal
+                && isFixedVersion(literal)) {
+            return new Coordinates(group, module, literal);
+        }
+        return null;
+    }
+
+    static boolean isFixedVersion(String version) {
+        if (version.isEmpty() || version.endsWith("-SNAPSHOT")) {
+            return false;
+        }
+        for (int i = 0; i < version.length(); i++) {
+            char c = version.charAt(i);
+            if (c == '$' || c == '[' || c == '(' || c == ',' || c == '+' || c == '/' || Character.isWhitespace(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collects the parts of a POM that matter for prefetching in one streaming pass.
+     */
+    private static final class PomReader {
+        private final Map<String, String> properties = new HashMap<>();
+        private final Map<String, String> fields = new HashMap<>();
+        private final List<Map<String, String>> dependencies = new ArrayList<>();
+        private final List<Map<String, String>> managed = new ArrayList<>();
+        private boolean gradleMetadata;
+
+        void read(XMLStreamReader reader) throws XMLStreamException {
+            StringBuilder path = new StringBuilder();
+            StringBuilder text = new StringBuilder();
+            Map<String, String> dependency = null;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamReader.START_ELEMENT -> {
+                        path.append('/').append(reader.getLocalName());
+                        text.setLength(0);
+                        String current = path.toString();
+                        if (current.equals("/project/dependencies/dependency")
+                                || current.equals("/project/dependencyManagement/dependencies/dependency")) {
+                            dependency = new HashMap<>();
+                        }
+                    }
+                    case XMLStreamReader.CHARACTERS, XMLStreamReader.CDATA -> text.append(reader.getText());
+                    case XMLStreamReader.COMMENT -> {
+                        if (reader.getText().contains(GRADLE_METADATA_MARKER)) {
+                            gradleMetadata = true;
+                        }
+                    }
+                    case XMLStreamReader.END_ELEMENT -> {
+                        String current = path.toString();
+                        String value = text.toString().trim();
+                        if (current.equals("/project/dependencies/dependency")) {
+                            dependencies.add(dependency);
+                            dependency = null;
+                        } else if (current.equals("/project/dependencyManagement/dependencies/dependency")) {
+                            managed.add(dependency);
+                            dependency = null;
+                        } else if (dependency != null && isDependencyField(current)) {
+                            dependency.put(reader.getLocalName(), value);
+                        } else if (isChildOf(current, "/project/properties/")) {
+                            properties.put(reader.getLocalName(), value);
+                        } else if (isChildOf(current, "/project/") || isChildOf(current, "/project/parent/")) {
+                            fields.put(current, value);
+                        }
+                        path.setLength(path.lastIndexOf("/"));
+                        text.setLength(0);
+                    }
+                    default -> {}
+                }
+            }
+        }
+
+        /**
+         * True for direct children of a dependency, not for those of its exclusions.
+         */
+        private static boolean isDependencyField(String path) {
+            return isChildOf(path, "/project/dependencies/dependency/")
+                    || isChildOf(path, "/project/dependencyManagement/dependencies/dependency/");
+        }
+
+        private static boolean isChildOf(String path, String prefix) {
+            return path.startsWith(prefix) && path.indexOf('/', prefix.length()) < 0;
+        }
+
+        DependencyMetadata result() {
+            String parentGroup = fields.get("/project/parent/groupId");
+            String parentVersion = fields.get("/project/parent/version");
+            String group = fields.getOrDefault("/project/groupId", parentGroup);
+            String version = fields.getOrDefault("/project/version", parentVersion);
+            properties.put("project.groupId", group);
+            properties.put("pom.groupId", group);
+            properties.put("project.version", version);
+            properties.put("pom.version", version);
+            properties.put("version", version);
+            properties.put("project.parent.groupId", parentGroup);
+            properties.put("project.parent.version", parentVersion);
+
+            Coordinates component = coordinates(group, fields.get("/project/artifactId"), version);
+            List<Coordinates> boms = new ArrayList<>();
+            Coordinates parent = coordinates(parentGroup, fields.get("/project/parent/artifactId"), parentVersion);
+            if (parent != null) {
+                boms.add(parent);
+            }
+            Map<String, String> managedVersions = new LinkedHashMap<>();
+            for (Map<String, String> entry : managed) {
+                if ("import".equals(entry.get("scope"))) {
+                    Coordinates bom = coordinates(entry.get("groupId"), entry.get("artifactId"), entry.get("version"));
+                    if (bom != null) {
+                        boms.add(bom);
+                    }
+                } else {
+                    managedVersions.put(entry.get("groupId") + ":" + entry.get("artifactId"), entry.get("version"));
+                }
+            }
+            List<Coordinates> resolved = new ArrayList<>();
+            for (Map<String, String> entry : dependencies) {
+                String scope = entry.getOrDefault("scope", "compile");
+                if (scope.equals("test")
+                        || scope.equals("provided")
+                        || scope.equals("system")
+                        || "true".equals(interpolate(entry.get("optional")))) {
+                    continue;
+                }
+                String dependencyVersion = entry.getOrDefault(
+                        "version", managedVersions.get(entry.get("groupId") + ":" + entry.get("artifactId")));
+                Coordinates coordinates = coordinates(entry.get("groupId"), entry.get("artifactId"), dependencyVersion);
+                if (coordinates != null && !resolved.contains(coordinates)) {
+                    resolved.add(coordinates);
+                }
+            }
+            String packaging = interpolate(fields.getOrDefault("/project/packaging", "jar"));
+            return new DependencyMetadata(component, packaging, gradleMetadata, boms, resolved, List.of());
+        }
+
+        private Coordinates coordinates(String group, String module, String version) {
+            group = interpolate(group);
+            module = interpolate(module);
+            version = interpolate(version);
+            if (group == null || module == null || version == null || !isFixedVersion(version)) {
+                return null;
+            }
+            if (group.indexOf('$') >= 0 || module.indexOf('$') >= 0) {
+                return null;
+            }
+            return new Coordinates(group, module, version);
+        }
+
+        /**
+         * Replaces {@code ${name}} with properties of this POM, leaving unknown ones in place.
+         */
+        private String interpolate(String value) {
+            // Properties may refer to other properties; a few rounds cover real POMs without risking cycles
+            for (int round = 0; value != null && round < 5; round++) {
+                int start = value.indexOf("${");
+                int end = start < 0 ? -1 : value.indexOf('}', start);
+                if (end < 0) {
+                    return value;
+                }
+                String replacement = properties.get(value.substring(start + 2, end));
+                if (replacement == null) {
+                    return value;
+                }
+                value = value.substring(0, start) + replacement + value.substring(end + 1);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Minimal JSON reader producing maps, lists, strings, numbers (as strings), booleans and nulls. Module metadata
+     * is small and written by Gradle, so there is no need for a streaming parser.
+     */
+    private static final class JsonReader {
+        // Module metadata nests a handful of levels; deeper input is not worth recursing into
+        private static final int MAX_DEPTH = 32;
+
+        private final String json;
+        private int pos;
+        private int depth;
+
+        JsonReader(String json) {
+            this.json = json;
+        }
+
+        Object readDocument() {
+            Object value = readValue();
+            skipWhitespace();
+            if (pos != json.length()) {
+                throw error("trailing content");
+            }
+            return value;
+        }
+
+        private Object readValue() {
+            skipWhitespace();
+            if (pos >= json.length()) {
+                throw error("unexpected end");
+            }
+            char c = json.charAt(pos);
+            if ((c == '{' || c == '[') && ++depth > MAX_DEPTH) {
+                throw error("nested too deeply");
+            }
+            return switch (c) {
+                case '{' -> readObject();
+                case '[' -> readArray();
+                case '"' -> readString();
+                case 't' -> readLiteral("true", Boolean.TRUE);
+                case 'f' -> readLiteral("false", Boolean.FALSE);
+                case 'n' -> readLiteral("null", null);
+                default -> readNumber();
+            };
+        }
+
+        private Map<String, Object> readObject() {
+            Map<String, Object> object = new LinkedHashMap<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                depth--;
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw error("expected a key");
+                }
+                String key = readString();
+                skipWhitespace();
+                expect(':');
+                object.put(key, readValue());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    depth--;
+                    return object;
+                }
+            }
+        }
+
+        private List<Object> readArray() {
+            List<Object> array = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                depth--;
+                return array;
+            }
+            while (true) {
+                array.add(readValue());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect(']');
+                    depth--;
+                    return array;
+                }
+            }
+        }
+
+        private String readString() {
+            pos++;
+            StringBuilder out = new StringBuilder();
+            while (true) {
+                if (pos >= json.length()) {
+                    throw error("unterminated string");
+                }
+                char c = json.charAt(pos++);
+                if (c == '"') {
+                    return out.toString();
+                }
+                if (c != '\\') {
+                    out.append(c);
+                    continue;
+                }
+                if (pos >= json.length()) {
+                    throw error("unterminated escape");
+                }
+                char escaped = json.charAt(pos++);
+                switch (escaped) {
+                    case 'b' -> out.append('\b');
+                    case 'f' -> out.append('\f');
+                    case 'n' -> out.append('\n');
+                    case 'r' -> out.append('\r');
+                    case 't' -> out.append('\t');
+                    case 'u' -> {
+                        if (pos + 4 > json.length()) {
+                            throw error("bad unicode escape");
+                        }
+                        try {
+                            out.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("bad unicode escape");
+                        }
+                        pos += 4;
+                    }
+                    default -> out.append(escaped);
+                }
+            }
+        }
+
+        private String readNumber() {
+            int start = pos;
+            while (pos < json.length() && "+-0123456789.eE".indexOf(json.charAt(pos)) >= 0) {
+                pos++;
+            }
+            if (start == pos) {
+                throw error("unexpected character");
+            }
+            return json.substring(start, pos);
+        }
+
+        private Object readLiteral(String literal, Object value) {
+            if (!json.startsWith(literal, pos)) {
+                throw error("unexpected character");
+            }
+            pos += literal.length();
+            return value;
+        }
+
+        private void skipWhitespace() {
+            while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private char peek() {
+            if (pos >= json.length()) {
+                throw error("unexpected end");
+            }
+            return json.charAt(pos);
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Malformed module metadata: " + message + " at offset " + pos);
+        }
+    }
+}
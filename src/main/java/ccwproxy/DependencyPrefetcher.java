@@ -0,0 +1,213 @@
+package ccwproxy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.FullHttpResponse;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fetches dependencies into the artifact cache before the build asks for them.
+ *
+ * <p>Dependency resolution walks the graph one POM at a time, so every level costs a round trip through the upstream.
+ * When a POM or Gradle module metadata file passes through the proxy in plaintext, its parent, imported BOMs and
+ * dependencies are requested in the background, a bounded number at a time. Prefetches go through the proxy itself, so
+ * they are cached, coalesced with the build's own request for the same file, limited per host and intercepted like any
+ * other request, and the POMs they bring in are expanded in turn up to {@value #MAX_DEPTH} levels below what the build
+ * asked for. Each URL is scheduled once, unless its fetch fails or it is no longer among the last
+ * {@value #MAX_TRACKED} URLs seen.
+ */
+final class DependencyPrefetcher implements AutoCloseable {
+
+    static final int DEFAULT_PARALLELISM = 4;
+    // Larger POMs exist, but nothing worth prefetching from
+    static final int MAX_METADATA_BYTES = 2 * 1024 * 1024;
+
+    private static final int MAX_DEPTH = 3;
+    private static final int QUEUE_SIZE = 1024;
+    // URLs remembered as scheduled; one not seen among this many since is likely cached or no longer wanted
+    private static final int MAX_TRACKED = 64 * 1024;
+
+    /**
+     * Requests one URL through the proxy, discarding the response. Throws {@link IOException} if the file could not be
+     * fetched but might be later.
+     */
+    interface Fetcher {
+        void fetch(String url) throws IOException, InterruptedException;
+    }
+
+    final LongAdder fetched = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final LongAdder dropped = new LongAdder();
+
+    private final ArtifactCache cache;
+    private final ThreadPoolExecutor executor;
+    // URL -> depth below a file the build asked for, least recently seen first; guarded by itself
+    private final LinkedHashMap<String, Integer> scheduled = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_TRACKED;
+        }
+    };
+
+    private volatile Fetcher fetcher;
+
+    DependencyPrefetcher(ArtifactCache cache, int parallelism) {
+        this.cache = cache;
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                parallelism,
+                parallelism,
+                30,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE),
+                task -> Thread.ofPlatform()
+                        .name("ccw-proxy-prefetch-" + threads.getAndIncrement())
+                        .daemon()
+                        .unstarted(task));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    static boolean isMetadata(String url) {
+        return url.endsWith(".pom") || url.endsWith(".module");
+    }
+
+    /**
+     * Starts prefetching with {@code fetcher}; until then observed files are ignored.
+     */
+    void start(Fetcher fetcher) {
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * Schedules the files {@code body} refers to. Called on the event loop once a POM or module file has been
+     * received in full; parsing happens in the background. {@code body} must not be modified afterwards.
+     */
+    void observe(String url, byte[] body, int length) {
+        if (fetcher == null) {
+            return;
+        }
+        int depth;
+        synchronized (scheduled) {
+            depth = scheduled.getOrDefault(url, 0);
+        }
+        submit(() -> expand(url, body, length, depth));
+    }
+
+    private void expand(String url, byte[] body, int length, int depth) {
+        boolean pom = url.endsWith(".pom");
+        DependencyMetadata metadata;
+        try {
+            metadata = pom ? DependencyMetadata.fromPom(body, length) : DependencyMetadata.fromModule(body, length);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        DependencyMetadata.Coordinates component = metadata.component;
+        if (component == null) {
+            return;
+        }
+        // Dependencies come from the same repository as the file that declares them
+        String suffix = component.path(pom ? "pom" : "module");
+        if (!url.endsWith(suffix)) {
+            return;
+        }
+        String repository = url.substring(0, url.length() - suffix.length());
+
+        if (pom) {
+            if (metadata.gradleMetadata) {
+                schedule(repository + component.path("module"), depth);
+            }
+            if (metadata.packaging.equals("jar") || metadata.packaging.equals("bundle")) {
+                schedule(repository + component.path("jar"), depth);
+            }
+        }
+        // Parents and BOMs are needed to make sense of this file at all, so they do not count as a level
+        for (DependencyMetadata.Coordinates bom : metadata.boms) {
+            schedule(repository + bom.path("pom"), depth);
+        }
+        for (DependencyMetadata.Coordinates redirect : metadata.redirects) {
+            schedule(repository + redirect.path("module"), depth);
+        }
+        if (depth < MAX_DEPTH) {
+            for (DependencyMetadata.Coordinates dependency : metadata.dependencies) {
+                schedule(repository + dependency.path("pom"), depth + 1);
+            }
+        }
+    }
+
+    private void schedule(String url, int depth) {
+        synchronized (scheduled) {
+            if (scheduled.putIfAbsent(url, depth) != null) {
+                return;
+            }
+        }
+        boolean submitted = true;
+        if (!cache.contains(url)) {
+            submitted = submit(() -> fetch(url));
+        } else if (isMetadata(url)) {
+            // Already cached, so it will not pass through the proxy again; expand it from disk
+            submitted = submit(() -> expandCached(url, depth));
+        }
+        if (!submitted) {
+            forget(url);
+        }
+    }
+
+    private void fetch(String url) {
+        try {
+            fetcher.fetch(url);
+            fetched.increment();
+        } catch (IOException e) {
+            // Scheduled again the next time a file refers to it
+            forget(url);
+            failed.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void forget(String url) {
+        synchronized (scheduled) {
+            scheduled.remove(url);
+        }
+    }
+
+    private void expandCached(String url, int depth) {
+        FullHttpResponse cached = cache.peek(url);
+        if (cached == null) {
+            return;
+        }
+        try {
+            ByteBuf content = cached.content();
+            if (content.readableBytes() > MAX_METADATA_BYTES) {
+                return;
+            }
+            byte[] body = new byte[content.readableBytes()];
+            content.getBytes(content.readerIndex(), body);
+            expand(url, body, body.length, depth);
+        } finally {
+            cached.release();
+        }
+    }
+
+    private boolean submit(Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            dropped.increment();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,317 @@
+package ccwproxy;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.util.NetUtil;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Destinations reached directly instead of through the upstream proxy, in {@code NO_PROXY} syntax.
+ *
+ * <p>A pattern is a host name, which also matches its subdomains ({@code example.com}, {@code .example.com} and
+ * {@code *.example.com} are equivalent), an IP address, a CIDR block, or {@code *} for everything. Ports in patterns
+ * are ignored, and IP patterns only match destinations given as IP literals; names are never resolved to decide. Names
+ * are kept in a trie of reversed host names, so a decision walks the destination host once from its last character
+ * and does not allocate, except for IPv6 literals.
+ */
+final class DirectRoutes {
+
+    static final DirectRoutes NONE = new DirectRoutes(List.of(), false, new Node(), new int[0], new int[0], List.of());
+
+    private final List<String> patterns;
+    private final boolean all;
+    private final Node names;
+    private final int[] ipv4Networks;
+    private final int[] ipv4Masks;
+    private final List<Ipv6Block> ipv6Blocks;
+
+    private DirectRoutes(
+            List<String> patterns,
+            boolean all,
+            Node names,
+            int[] ipv4Networks,
+            int[] ipv4Masks,
+            List<Ipv6Block> ipv6Blocks) {
+        this.patterns = patterns;
+        this.all = all;
+        this.names = names;
+        this.ipv4Networks = ipv4Networks;
+        this.ipv4Masks = ipv4Masks;
+        this.ipv6Blocks = ipv6Blocks;
+    }
+
+    /**
+     * Compiles {@code patterns}, ignoring blanks and throwing {@link IllegalArgumentException} for a malformed CIDR
+     * block.
+     */
+    static DirectRoutes compile(Collection<String> patterns) {
+        boolean all = false;
+        Node names = new Node();
+        int[] networks = new int[0];
+        int[] masks = new int[0];
+        List<Ipv6Block> ipv6Blocks = new ArrayList<>();
+        List<String> compiled = new ArrayList<>();
+        for (String raw : patterns) {
+            String pattern = raw.trim().toLowerCase(Locale.ROOT);
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            compiled.add(pattern);
+            if (pattern.equals("*")) {
+                all = true;
+                continue;
+            }
+            int slash = pattern.indexOf('/');
+            String address = slash < 0 ? pattern : pattern.substring(0, slash);
+            int colon = address.indexOf(':');
+            if (address.startsWith("[")) {
+                address = address.substring(1, Math.max(1, address.indexOf(']')));
+            } else if (colon >= 0 && colon == address.lastIndexOf(':')) {
+                address = address.substring(0, colon);
+            }
+            byte[] ip = NetUtil.createByteArrayFromIpAddressString(address);
+            if (ip == null && slash < 0) {
+                names.insert(nameOf(address));
+                continue;
+            }
+            int prefix = ip == null ? -1 : ip.length * 8;
+            if (slash >= 0) {
+                try {
+                    prefix = Integer.parseInt(pattern.substring(slash + 1));
+                } catch (NumberFormatException e) {
+                    prefix = -1;
+                }
+            }
+            if (ip == null || prefix < 0 || prefix > ip.length * 8) {
+                throw new IllegalArgumentException("Invalid CIDR block in direct routes: " + raw.trim());
+            }
+            if (ip.length == 4) {
+                int mask = prefix == 0 ? 0 : -1 << (32 - prefix);
+                networks = Arrays.copyOf(networks, networks.length + 1);
+                masks = Arrays.copyOf(masks, masks.length + 1);
+                networks[networks.length - 1] = toInt(ip) & mask;
+                masks[masks.length - 1] = mask;
+            } else {
+                ipv6Blocks.add(new Ipv6Block(ip, prefix));
+            }
+        }
+        if (!all && names.isEmpty() && networks.length == 0 && ipv6Blocks.isEmpty()) {
+            return NONE;
+        }
+        return new DirectRoutes(List.copyOf(compiled), all, names, networks, masks, List.copyOf(ipv6Blocks));
+    }
+
+    /**
+     * Strips the wildcard and trailing dot from a host name pattern.
+     */
+    private static String nameOf(String pattern) {
+        String host = pattern;
+        if (host.startsWith("*.")) {
+            host = host.substring(2);
+        } else if (host.startsWith(".")) {
+            host = host.substring(1);
+        }
+        return host.endsWith(".") ? host.substring(0, host.length() - 1) : host;
+    }
+
+    boolean isEmpty() {
+        return this == NONE;
+    }
+
+    @Override
+    public String toString() {
+        return String.join(", ", patterns);
+    }
+
+    /**
+     * True if the connection {@code request} needs should bypass the upstream proxy.
+     */
+    boolean isDirect(HttpRequest request) {
+        if (all) {
+            return true;
+        }
+        if (this == NONE) {
+            return false;
+        }
+        String uri = request.uri();
+        if (HttpMethod.CONNECT.equals(request.method())) {
+            return matchesAuthority(uri, 0, uri.length());
+        }
+        int scheme = uri.indexOf("://");
+        if (scheme >= 0) {
+            int start = scheme + 3;
+            int end = start;
+            while (end < uri.length() && "/?#".indexOf(uri.charAt(end)) < 0) {
+                end++;
+            }
+            return matchesAuthority(uri, start, end);
+        }
+        String host = request.headers().get(HttpHeaderNames.HOST);
+        return host != null && matchesAuthority(host, 0, host.length());
+    }
+
+    /**
+     * True if {@code host}, a name or IP literal with an optional port, should bypass the upstream proxy.
+     */
+    boolean isDirect(String host) {
+        return all || matchesAuthority(host, 0, host.length());
+    }
+
+    /**
+     * Matches {@code [start, end)} of {@code s}, a {@code host[:port]} that may carry user info or a bracketed IPv6
+     * literal.
+     */
+    private boolean matchesAuthority(String s, int start, int end) {
+        int at = s.lastIndexOf('@', end - 1);
+        if (at >= start) {
+            start = at + 1;
+        }
+        if (start < end && s.charAt(start) == '[') {
+            int close = s.indexOf(']', start);
+            return close > start && close < end && matchesIpv6(s.substring(start + 1, close));
+        }
+        int colon = s.indexOf(':', start);
+        if (colon >= 0 && colon < end) {
+            int second = s.indexOf(':', colon + 1);
+            if (second >= 0 && second < end) {
+                // More than one colon: a bare IPv6 literal
+                return matchesIpv6(s.substring(start, end));
+            }
+            end = colon;
+        }
+        if (end > start && s.charAt(end - 1) == '.') {
+            end--;
+        }
+        long ipv4 = parseIpv4(s, start, end);
+        if (ipv4 >= 0) {
+            for (int i = 0; i < ipv4Networks.length; i++) {
+                if (((int) ipv4 & ipv4Masks[i]) == ipv4Networks[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return matchesName(s, start, end);
+    }
+
+    /**
+     * Walks the trie from the last character of the host; a pattern matches where it ends on a label boundary.
+     */
+    private boolean matchesName(String s, int start, int end) {
+        Node node = names;
+        for (int i = end - 1; i >= start; i--) {
+            char c = s.charAt(i);
+            node = node.child(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+            if (node == null) {
+                return false;
+            }
+            if (node.terminal && (i == start || s.charAt(i - 1) == '.')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesIpv6(String literal) {
+        if (ipv6Blocks.isEmpty()) {
+            return false;
+        }
+        byte[] ip = NetUtil.createByteArrayFromIpAddressString(literal);
+        if (ip == null || ip.length != 16) {
+            return false;
+        }
+        for (Ipv6Block block : ipv6Blocks) {
+            if (block.contains(ip)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a dotted-quad IPv4 address, returning -1 if {@code [start, end)} is not one.
+     */
+    private static long parseIpv4(String s, int start, int end) {
+        long address = 0;
+        int octets = 0;
+        int value = -1;
+        for (int i = start; i <= end; i++) {
+            char c = i < end ? s.charAt(i) : '.';
+            if (c >= '0' && c <= '9') {
+                value = value < 0 ? c - '0' : value * 10 + (c - '0');
+                if (value > 255) {
+                    return -1;
+                }
+            } else if (c == '.' && value >= 0 && octets < 4) {
+                address = address << 8 | value;
+                octets++;
+                value = -1;
+            } else {
+                return -1;
+            }
+        }
+        return octets == 4 ? address : -1;
+    }
+
+    private static int toInt(byte[] ip) {
+        return (ip[0] & 0xff) << 24 | (ip[1] & 0xff) << 16 | (ip[2] & 0xff) << 8 | (ip[3] & 0xff);
+    }
+
+    private record Ipv6Block(byte[] network, int prefix) {
+        boolean contains(byte[] ip) {
+            for (int bit = 0; bit < prefix; bit += 8) {
+                int mask = prefix - bit >= 8 ? 0xff : 0xff << (8 - (prefix - bit)) & 0xff;
+                if (((ip[bit / 8] ^ network[bit / 8]) & mask) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Trie node keyed by one character of a reversed host name. Fan-out is small, so children are scanned linearly.
+     */
+    private static final class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private boolean terminal;
+
+        Node child(char key) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == key) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        void insert(String host) {
+            Node node = this;
+            for (int i = host.length() - 1; i >= 0; i--) {
+                char key = host.charAt(i);
+                Node next = node.child(key);
+                if (next == null) {
+                    next = new Node();
+                    node.keys = Arrays.copyOf(node.keys, node.keys.length + 1);
+                    node.children = Arrays.copyOf(node.children, node.children.length + 1);
+                    node.keys[node.keys.length - 1] = key;
+                    node.children[node.children.length - 1] = next;
+                }
+                node = next;
+            }
+            if (node != this) {
+                node.terminal = true;
+            }
+        }
+
+        boolean isEmpty() {
+            return keys.length == 0;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package ccwproxy;
+
+import io.netty.handler.codec.http.HttpRequest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import org.littleshoot.proxy.MitmManager;
+
+/**
+ * Intercepts TLS for an allow-list of hosts. The connection to the origin is verified against the default truststore
+ * (which includes the upstream proxy's inspection CA); the client is presented a certificate minted by the local
+ * {@link CertificateAuthority}.
+ *
+ * <p>LittleProxy consults this manager only for CONNECTs whose filters return true from
+ * {@code proxyToServerAllowMitm()}, see {@link #intercepts(String)}. Every other host stays a plain tunnel.
+ */
+final class InterceptingMitmManager implements MitmManager {
+
+    private final CertificateAuthority ca;
+    private final Set<String> hosts;
+    private final SSLContext upstreamContext;
+
+    InterceptingMitmManager(CertificateAuthority ca, Set<String> hosts) throws NoSuchAlgorithmException {
+        this.ca = ca;
+        this.hosts = hosts;
+        this.upstreamContext = SSLContext.getDefault();
+    }
+
+    /**
+     * Returns true if CONNECT requests to {@code hostAndPort} should be intercepted.
+     */
+    boolean intercepts(String hostAndPort) {
+        return hosts.contains(hostOf(hostAndPort).toLowerCase(Locale.ROOT));
+    }
+
+    @Override
+    public SSLEngine serverSslEngine(String peerHost, int peerPort) {
+        SSLEngine engine = upstreamContext.createSSLEngine(peerHost, peerPort);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        parameters.setServerNames(List.of(new SNIHostName(peerHost)));
+        engine.setSSLParameters(parameters);
+        return engine;
+    }
+
+    @Override
+    public SSLEngine serverSslEngine() {
+        return upstreamContext.createSSLEngine();
+    }
+
+    @Override
+    public SSLEngine clientSslEngineFor(HttpRequest httpRequest, SSLSession serverSslSession) {
+        return ca.contextFor(hostOf(httpRequest.uri())).createSSLEngine();
+    }
+
+    static String hostOf(String hostAndPort) {
+        int colon = hostAndPort.lastIndexOf(':');
+        // A bracketed IPv6 literal without a port has colons but no port separator
+        return colon < 0 || hostAndPort.endsWith("]") ? hostAndPort : hostAndPort.substring(0, colon);
+    }
+}
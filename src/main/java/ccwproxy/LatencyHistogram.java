@@ -0,0 +1,99 @@
+package ccwproxy;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-memory, lock-free latency histogram with log-linear buckets.
+ *
+ * <p>Values are recorded in microseconds. Each power of two is split into {@value #SUB_BUCKETS} linear sub-buckets,
+ * so a reported percentile is within about 6% of the true value, from 1 microsecond up to several hours. Recording
+ * is a single atomic increment and never allocates.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 2^40 microseconds is about 12.7 days; anything slower is clamped into the last bucket
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sumMicros = new LongAdder();
+
+    void recordNanos(long nanos) {
+        recordMicros(nanos / 1_000);
+    }
+
+    void recordMicros(long micros) {
+        long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+        counts.incrementAndGet(indexOf(value));
+        sumMicros.add(value);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Largest value that falls into bucket {@code index}.
+     */
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((long) (SUB_BUCKETS + subBucket) << shift) + (1L << shift) - 1;
+    }
+
+    /**
+     * Returns a point-in-time copy for reporting. Concurrent recordings may or may not be included.
+     */
+    Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, sumMicros.sum());
+    }
+
+    static final class Snapshot {
+        private final long[] counts;
+        final long count;
+        final long sumMicros;
+
+        private Snapshot(long[] counts, long count, long sumMicros) {
+            this.counts = counts;
+            this.count = count;
+            this.sumMicros = sumMicros;
+        }
+
+        /**
+         * Returns the value at {@code quantile} (0 to 1) in microseconds, or 0 if nothing was recorded.
+         */
+        long percentileMicros(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestValueOf(i);
+                }
+            }
+            return highestValueOf(counts.length - 1);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package ccwproxy;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.net.ssl.SSLSession;
+import org.littleshoot.proxy.ActivityTrackerAdapter;
+import org.littleshoot.proxy.FlowContext;
+import org.littleshoot.proxy.FullFlowContext;
+
+/**
+ * Process-wide counters and per-host latency histograms, exposed by {@link AdminServer}.
+ *
+ * <p>Everything here is updated from Netty I/O threads, so recording is limited to {@link LongAdder} increments and
+ * atomic histogram buckets. The number of tracked hosts is capped so memory stays bounded however many destinations a
+ * build touches.
+ */
+final class Metrics {
+
+    static final int MAX_HOSTS = 256;
+    static final String OTHER_HOSTS = "other";
+
+    private static final AttributeKey<PhaseTimer> TUNNEL_TIMER = AttributeKey.valueOf("ccw-tunnel-timer");
+    // Host of the last request on a client connection
+    private static final AttributeKey<String> LAST_HOST = AttributeKey.valueOf("ccw-last-host");
+    // Marks server channels that do not carry a tunnel
+    private static final PhaseTimer NO_TUNNEL = new PhaseTimer(0, false);
+
+    private static final int RATE_WINDOW_SECONDS = 10;
+    private static final int RATE_SLOTS = 16;
+
+    final LongAdder requests = new LongAdder();
+    final LongAdder clientConnections = new LongAdder();
+    final LongAdder activeTunnels = new LongAdder();
+    final LongAdder clientBytesIn = new LongAdder();
+    final LongAdder clientBytesOut = new LongAdder();
+    final LongAdder upstreamBytesOut = new LongAdder();
+    final LongAdder upstreamBytesIn = new LongAdder();
+    final LongAdder upstreamConnectFailures = new LongAdder();
+    final LongAdder timeouts = new LongAdder();
+    final LongAdder slowRequests = new LongAdder();
+    // Indexed by PhaseTimer.Phase ordinal, across all hosts
+    final LatencyHistogram[] phases = new LatencyHistogram[PhaseTimer.PHASES.length];
+    // Tunnels that started connecting, by client address, until their server channel is handed over
+    private final ConcurrentHashMap<SocketAddress, PhaseTimer> connectingTunnels = new ConcurrentHashMap<>();
+    // Shared so closing a tunnel does not need a listener per connection
+    final ChannelFutureListener tunnelClosed = future -> {
+        activeTunnels.decrement();
+        // A tunnel nothing was ever sent through is never handed its server channel
+        connectingTunnels.remove(future.channel().remoteAddress());
+    };
+
+    private final ConcurrentHashMap<String, HostMetrics> hosts = new ConcurrentHashMap<>();
+    // Per-second request counts; each slot packs the second (high 32 bits) with its count (low 32 bits)
+    private final AtomicLongArray rateSlots = new AtomicLongArray(RATE_SLOTS);
+
+    Metrics() {
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Latency histograms for one destination host.
+     */
+    static final class HostMetrics {
+        // Time from receiving a CONNECT to the tunnel being established
+        final LatencyHistogram connect = new LatencyHistogram();
+        // Time from receiving a request to the upstream response head
+        final LatencyHistogram response = new LatencyHistogram();
+    }
+
+    void requestReceived() {
+        requests.increment();
+        long second = System.nanoTime() / 1_000_000_000L;
+        int slot = (int) (second % RATE_SLOTS);
+        while (true) {
+            long packed = rateSlots.get(slot);
+            long next = (packed >>> 32) == (second & 0xFFFFFFFFL) ? packed + 1 : (second << 32) | 1;
+            if (rateSlots.compareAndSet(slot, packed, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Records the phases of a finished request or tunnel; phases it did not go through are skipped.
+     */
+    void recordPhases(PhaseTimer timer) {
+        for (PhaseTimer.Phase phase : PhaseTimer.PHASES) {
+            long nanos = timer.nanos(phase);
+            if (nanos >= 0) {
+                phases[phase.ordinal()].recordNanos(nanos);
+            }
+        }
+    }
+
+    /**
+     * A tunnel for {@code client} started connecting; its server channel will be handed over by {@link #tunnelOf}.
+     */
+    void tunnelConnecting(SocketAddress client, PhaseTimer timer) {
+        connectingTunnels.put(client, timer);
+    }
+
+    void tunnelConnectFailed(SocketAddress client, PhaseTimer timer) {
+        connectingTunnels.remove(client, timer);
+    }
+
+    /**
+     * Timer of the tunnel using {@code server}, or null for connections that do not carry one. The first call for a
+     * connection, made on its first write, hands it the timer of the tunnel its client is waiting for.
+     */
+    PhaseTimer tunnelOf(Channel server, SocketAddress client) {
+        Attribute<PhaseTimer> attribute = server.attr(TUNNEL_TIMER);
+        PhaseTimer timer = attribute.get();
+        if (timer == null) {
+            timer = client == null ? null : connectingTunnels.remove(client);
+            if (timer == null) {
+                timer = NO_TUNNEL;
+            } else {
+                timer.attach(server);
+            }
+            attribute.set(timer);
+        }
+        return timer == NO_TUNNEL ? null : timer;
+    }
+
+    /**
+     * Average requests per second over the last {@value #RATE_WINDOW_SECONDS} complete seconds.
+     */
+    double requestsPerSecond() {
+        long now = System.nanoTime() / 1_000_000_000L;
+        long total = 0;
+        for (int i = 0; i < RATE_SLOTS; i++) {
+            long packed = rateSlots.get(i);
+            long age = (now - (packed >>> 32)) & 0xFFFFFFFFL;
+            if (age >= 1 && age <= RATE_WINDOW_SECONDS) {
+                total += packed & 0xFFFFFFFFL;
+            }
+        }
+        return (double) total / RATE_WINDOW_SECONDS;
+    }
+
+    /**
+     * Returns the histograms for {@code host}, folding hosts beyond {@link #MAX_HOSTS} into {@link #OTHER_HOSTS}.
+     */
+    HostMetrics host(String host) {
+        HostMetrics metrics = hosts.get(host);
+        if (metrics != null) {
+            return metrics;
+        }
+        if (hosts.size() >= MAX_HOSTS) {
+            return hosts.computeIfAbsent(OTHER_HOSTS, key -> new HostMetrics());
+        }
+        return hosts.computeIfAbsent(host, key -> new HostMetrics());
+    }
+
+    Map<String, HostMetrics> hosts() {
+        return hosts;
+    }
+
+    /**
+     * Destination host of a request: the CONNECT target, the host of an absolute URI, or the Host header for
+     * requests inside an intercepted tunnel.
+     */
+    static String hostOf(HttpRequest request) {
+        return hostOf(request, (String) null);
+    }
+
+    /**
+     * {@link #hostOf(HttpRequest)} for a request from {@code client}. Consecutive requests on a connection usually go
+     * to the same host, which is then found without copying it out of the request again.
+     */
+    static String hostOf(HttpRequest request, Channel client) {
+        Attribute<String> last = client.attr(LAST_HOST);
+        String previous = last.get();
+        String host = hostOf(request, previous);
+        if (host != previous) {
+            last.set(host);
+        }
+        return host;
+    }
+
+    private static String hostOf(HttpRequest request, String previous) {
+        String uri = request.uri();
+        String source = uri;
+        int start = 0;
+        int end = uri.length();
+        if (!HttpMethod.CONNECT.equals(request.method())) {
+            int scheme = uri.indexOf("://");
+            if (scheme >= 0) {
+                start = scheme + 3;
+                int slash = uri.indexOf('/', start);
+                end = slash < 0 ? uri.length() : slash;
+            } else {
+                source = request.headers().get(HttpHeaderNames.HOST, "unknown");
+                end = source.length();
+            }
+        }
+        // Drop the port; a bracketed IPv6 literal without a port has colons but no port separator
+        int colon = source.lastIndexOf(':', end - 1);
+        if (colon >= start && source.charAt(end - 1) != ']') {
+            end = colon;
+        }
+        int length = end - start;
+        if (previous != null && previous.length() == length && previous.regionMatches(true, 0, source, start, length)) {
+            return previous;
+        }
+        return source.substring(start, end).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Counts client connections and bytes to and from clients and the upstream, including raw tunnel traffic, and
+     * times tunnels.
+     */
+    ActivityTrackerAdapter tracker() {
+        return new ActivityTrackerAdapter() {
+            @Override
+            public void clientConnected(InetSocketAddress clientAddress) {
+                clientConnections.increment();
+            }
+
+            @Override
+            public void clientDisconnected(InetSocketAddress clientAddress, SSLSession sslSession) {
+                clientConnections.decrement();
+            }
+
+            @Override
+            public void bytesReceivedFromClient(FlowContext flowContext, int numberOfBytes) {
+                clientBytesIn.add(numberOfBytes);
+            }
+
+            @Override
+            public void bytesSentToClient(FlowContext flowContext, int numberOfBytes) {
+                clientBytesOut.add(numberOfBytes);
+            }
+
+            @Override
+            public void bytesSentToServer(FullFlowContext flowContext, int numberOfBytes) {
+                upstreamBytesOut.add(numberOfBytes);
+                PhaseTimer timer = tunnelOf(flowContext);
+                if (timer != null) {
+                    timer.sent(numberOfBytes);
+                }
+            }
+
+            @Override
+            public void bytesReceivedFromServer(FullFlowContext flowContext, int numberOfBytes) {
+                upstreamBytesIn.add(numberOfBytes);
+                PhaseTimer timer = tunnelOf(flowContext);
+                if (timer != null) {
+                    timer.received(numberOfBytes);
+                }
+            }
+
+            private PhaseTimer tunnelOf(FullFlowContext flowContext) {
+                return Metrics.this.tunnelOf(
+                        flowContext.getProxyToServerContext().channel(), flowContext.getClientAddress());
+            }
+        };
+    }
+}
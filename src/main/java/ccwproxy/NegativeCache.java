@@ -0,0 +1,152 @@
+package ccwproxy;
+
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Short-lived memory of repository misses, so repeated probes for the same missing file are answered locally.
+ *
+ * <p>Gradle asks every declared repository for every module, and most repositories answer most of those probes with
+ * 404. A {@code GET} or {@code HEAD} for a {@linkplain ArtifactCache#isArtifactPath repository file} answered with 404
+ * or 410 is remembered, with that status, for a short TTL, keyed by a 64-bit hash of its method and URL, in a
+ * fixed-size open-addressing table. When an entry's neighbourhood is full the entry closest to
+ * expiry makes room, so memory is bounded and lookups never allocate. Two URLs sharing a hash would let one answer for
+ * the other until the entry expires; at 64 bits that is not a practical concern.
+ */
+final class NegativeCache {
+
+    static final Duration DEFAULT_TTL = Duration.ofSeconds(30);
+    static final int DEFAULT_CAPACITY = 16 * 1024;
+
+    // Slots examined per key before evicting
+    private static final int NEIGHBOURHOOD = 8;
+    private static final long EMPTY = 0;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder stores = new LongAdder();
+
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final long[] keys;
+    private final long[] expiries;
+    private final short[] statuses;
+    private final int mask;
+
+    NegativeCache(Duration ttl, int capacity) {
+        this(ttl, capacity, System::nanoTime);
+    }
+
+    NegativeCache(Duration ttl, int capacity, LongSupplier clock) {
+        int size = Integer.highestOneBit(Math.max(NEIGHBOURHOOD, capacity - 1) << 1);
+        this.ttlNanos = ttl.toNanos();
+        this.clock = clock;
+        this.keys = new long[size];
+        this.expiries = new long[size];
+        this.statuses = new short[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Returns true for {@code GET} and {@code HEAD} requests for repository files; a miss anywhere else, such as an
+     * API endpoint, may well be gone on the next try.
+     */
+    static boolean isCacheable(HttpRequest request) {
+        HttpMethod method = request.method();
+        return (HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method))
+                && ArtifactCache.isArtifactPath(request.uri());
+    }
+
+    static boolean isNegative(int status) {
+        return status == 404 || status == 410;
+    }
+
+    /**
+     * Hashes the request's method and {@link ArtifactCache#urlOf absolute URL} without building the URL.
+     */
+    static long keyOf(HttpRequest request) {
+        long hash = hash(FNV_OFFSET, request.method().name());
+        String uri = request.uri();
+        if (uri.startsWith("/")) {
+            hash = hash(hash, "https://");
+            String host = request.headers().get(HttpHeaderNames.HOST);
+            hash = hash(hash, host != null ? host : "null");
+        }
+        hash = hash(hash, uri);
+        // Spread the FNV bits so neighbouring URLs land in different slots
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    private static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the status of the negative answer {@code key} got within the TTL, or 0 if there is none.
+     */
+    synchronized int statusOf(long key) {
+        long now = clock.getAsLong();
+        for (int i = 0, slot = (int) key & mask; i < NEIGHBOURHOOD; i++, slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                if (expiries[slot] - now > 0) {
+                    hits.increment();
+                    return statuses[slot];
+                }
+                keys[slot] = EMPTY;
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Remembers a negative answer with {@code status} for {@code key}.
+     */
+    synchronized void put(long key, int status) {
+        long now = clock.getAsLong();
+        // Refresh the key's own slot, else take an empty one, else the one closest to expiry
+        int victim = -1;
+        long victimRemaining = Long.MAX_VALUE;
+        for (int i = 0, slot = (int) key & mask; i < NEIGHBOURHOOD; i++, slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                victim = slot;
+                break;
+            }
+            long remaining = keys[slot] == EMPTY ? Long.MIN_VALUE : expiries[slot] - now;
+            if (remaining < victimRemaining) {
+                victim = slot;
+                victimRemaining = remaining;
+            }
+        }
+        keys[victim] = key;
+        expiries[victim] = now + ttlNanos;
+        statuses[victim] = (short) status;
+        stores.increment();
+    }
+
+    /**
+     * Answer to a request for a file known to be missing, with the status the repository gave.
+     */
+    static FullHttpResponse answer(int status) {
+        FullHttpResponse response =
+                new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.valueOf(status));
+        HttpUtil.setContentLength(response, 0);
+        return response;
+    }
+}
@@ -0,0 +1,114 @@
+package ccwproxy;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import java.util.Locale;
+
+/**
+ * Nanosecond timestamps of one request or tunnel on its way through the proxy, and the phases they delimit.
+ *
+ * <p>{@link ProxyFilters} records what LittleProxy reports to filters: resolving the destination (direct connections
+ * only; upstream addresses are {@linkplain CachedAddress cached}), starting and finishing the connection, sending the
+ * request and receiving the first byte of the response. Filters are not told when a tunnel is established, nor what
+ * flows through it, so a tunnel counts as established when LittleProxy answers the client's {@code CONNECT}, and
+ * {@linkplain Metrics#tracker() the activity tracker} fills in the rest from the server channel: a write on it before
+ * then marks the end of the TCP connect to the upstream, and the bytes after then are the tunnel's traffic.
+ *
+ * <p>The fields are written on the client's and the server's event loops and read wherever the request is reported,
+ * so they are volatile. Each has a single writer at a time, which makes {@code +=} on the byte counts safe.
+ */
+final class PhaseTimer {
+
+    /**
+     * Consecutive phases; a phase that did not happen (e.g. connecting on a reused connection) is not reported.
+     */
+    enum Phase {
+        // Resolving the destination of a direct connection
+        DNS,
+        // TCP connect to the upstream or destination
+        CONNECT,
+        // CONNECT exchange with the upstream and/or TLS handshake with an intercepted origin
+        HANDSHAKE,
+        // Request sent (or tunnel established) to first response byte
+        WAIT,
+        // First to last response byte, or until a tunnel closed
+        TRANSFER;
+
+        final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    // Shared copy of Phase.values()
+    static final Phase[] PHASES = Phase.values();
+
+    final long received;
+    final boolean tunnel;
+    volatile long resolveStart;
+    volatile long resolveEnd;
+    volatile long connectStart;
+    volatile long tcpConnected;
+    // Set on the client's event loop for tunnels
+    volatile long connected;
+    volatile long requestSent;
+    volatile long firstByte;
+    volatile long completed;
+    volatile long bytesUp;
+    volatile long bytesDown;
+    // Tunnels only: reports the tunnel once its server channel closes
+    ChannelFutureListener onClose;
+
+    PhaseTimer(long received, boolean tunnel) {
+        this.received = received;
+        this.tunnel = tunnel;
+    }
+
+    /**
+     * The tunnel's server channel was handed over on its first write.
+     */
+    void attach(Channel server) {
+        if (connected == 0) {
+            tcpConnected = System.nanoTime();
+        }
+        server.closeFuture().addListener(onClose);
+    }
+
+    void sent(int bytes) {
+        if (connected != 0) {
+            bytesUp += bytes;
+        }
+    }
+
+    void received(int bytes) {
+        if (connected != 0) {
+            if (firstByte == 0) {
+                firstByte = System.nanoTime();
+            }
+            bytesDown += bytes;
+        }
+    }
+
+    /**
+     * Duration of {@code phase} in nanoseconds, or -1 if it did not happen.
+     */
+    long nanos(Phase phase) {
+        return switch (phase) {
+            case DNS -> between(resolveStart, resolveEnd);
+            case CONNECT -> between(connectStart, tcpConnected != 0 ? tcpConnected : connected);
+            case HANDSHAKE -> tcpConnected != 0 ? between(tcpConnected, connected) : -1;
+            case WAIT -> between(Math.max(requestSent, connected), firstByte);
+            case TRANSFER -> between(firstByte, completed);
+        };
+    }
+
+    /**
+     * Time from receiving the request to the first byte of the response, or to the tunnel being established if the
+     * server has not sent anything; -1 if neither happened.
+     */
+    long latencyNanos() {
+        long end = firstByte != 0 ? firstByte : connected;
+        return end == 0 ? -1 : end - received;
+    }
+
+    private static long between(long start, long end) {
+        return start == 0 || end == 0 ? -1 : Math.max(0, end - start);
+    }
+}
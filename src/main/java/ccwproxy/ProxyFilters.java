@@ -0,0 +1,416 @@
+package ccwproxy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+
+/**
+ * Per-request filters applying the proxy's features to each request and response.
+ *
+ * <p>They log and time responses phase by phase, serve and store cacheable artifacts, answer known-missing files, hand
+ * POM and module files to the prefetcher, limit concurrent requests per host, coalesce concurrent identical GETs and
+ * decide which CONNECTs are intercepted.
+ */
+final class ProxyFilters extends HttpFiltersAdapter {
+
+    private final String method;
+    private final String uri;
+    private final long startNanos;
+    private final PhaseTimer timer;
+    private final boolean verbose;
+    // Zero when slow requests are not flagged
+    private final long slowNanos;
+    private final AccessLog log;
+    private final Metrics metrics;
+    private final ArtifactCache cache;
+    private final NegativeCache negativeCache;
+    private final DependencyPrefetcher prefetcher;
+    private final RequestCoalescer coalescer;
+    private final ConcurrencyLimiter limiter;
+    private final boolean allowMitm;
+
+    private String cacheUrl;
+    private ArtifactCache.Writer cacheWriter;
+    // Drops the partial entry if the client goes away mid-download; removed once the write ends, as the connection
+    // may serve many more requests
+    private ChannelFutureListener abortOnClose;
+    private long expectedLength;
+    // Body of a POM or module file being received, for the prefetcher
+    private byte[] metadata;
+    private int metadataLength;
+    // Zero unless a negative answer to this request would be remembered
+    private long negativeKey;
+    private RequestCoalescer.Flight flight;
+    private ConcurrencyLimiter.Gate gate;
+    private int status;
+    // Looked up when first needed
+    private String host;
+
+    ProxyFilters(
+            HttpRequest originalRequest,
+            ChannelHandlerContext ctx,
+            boolean verbose,
+            long slowNanos,
+            AccessLog log,
+            Metrics metrics,
+            ArtifactCache cache,
+            NegativeCache negativeCache,
+            DependencyPrefetcher prefetcher,
+            RequestCoalescer coalescer,
+            ConcurrencyLimiter limiter,
+            InterceptingMitmManager mitm) {
+        super(originalRequest, ctx);
+        this.method = originalRequest.method().name();
+        this.uri = originalRequest.uri();
+        this.startNanos = System.nanoTime();
+        this.timer = new PhaseTimer(startNanos, HttpMethod.CONNECT.equals(originalRequest.method()));
+        this.verbose = verbose;
+        this.slowNanos = slowNanos;
+        this.log = log;
+        this.metrics = metrics;
+        this.cache = cache;
+        this.negativeCache = negativeCache;
+        this.prefetcher = prefetcher;
+        this.coalescer = coalescer;
+        this.limiter = limiter;
+        this.allowMitm = mitm != null && HttpMethod.CONNECT.equals(originalRequest.method()) && mitm.intercepts(uri);
+    }
+
+    @Override
+    public boolean proxyToServerAllowMitm() {
+        return allowMitm;
+    }
+
+    @Override
+    public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+        if (!(httpObject instanceof HttpRequest)) {
+            return null;
+        }
+        HttpRequest request = (HttpRequest) httpObject;
+        if (HttpMethod.CONNECT.equals(request.method()) && ctx.pipeline().get(TunnelMonitor.NAME) == null) {
+            ctx.pipeline().addBefore("handler", TunnelMonitor.NAME, new TunnelMonitor(metrics, request, timer));
+        }
+        if (limiter != null && ConcurrencyLimiter.isLimited(request)) {
+            gate = ConcurrencyLimiter.gate(ctx.channel());
+            // A new request on this connection means the previous one has been answered
+            gate.release();
+            gate.takeGranted();
+        }
+        if (negativeCache != null && NegativeCache.isCacheable(request)) {
+            negativeKey = NegativeCache.keyOf(request);
+            int negativeStatus = negativeCache.statusOf(negativeKey);
+            if (negativeStatus != 0) {
+                logShortCircuit(AccessLog.Event.NEGATIVE_HIT, negativeStatus);
+                return NegativeCache.answer(negativeStatus);
+            }
+        }
+        if (cache != null && ArtifactCache.isCacheable(request)) {
+            cacheUrl = ArtifactCache.urlOf(request);
+            FullHttpResponse cached = cache.lookup(cacheUrl);
+            if (cached != null) {
+                logShortCircuit(AccessLog.Event.CACHE_HIT, 200);
+                return cached;
+            }
+            // Ask for an unencoded body so the stored copy can be served to any client
+            request.headers().remove(HttpHeaderNames.ACCEPT_ENCODING);
+        }
+        if (gate != null && gate.current() == null) {
+            switch (limiter.acquire(host(), gate, request)) {
+                case QUEUED -> {
+                    logShortCircuit(AccessLog.Event.QUEUED, 0);
+                    RequestCoalescer.suppressPlaceholders(ctx.pipeline());
+                    return RequestCoalescer.placeholder();
+                }
+                case REJECTED -> {
+                    log.response(method, uri, 503, startNanos);
+                    return ConcurrencyLimiter.queueFull();
+                }
+                case ADMITTED -> {}
+            }
+        }
+        if (coalescer != null && RequestCoalescer.isCoalescible(request)) {
+            flight = coalescer.leadOrFollow(
+                    RequestCoalescer.keyOf(request), ctx.channel(), HttpUtil.isKeepAlive(request));
+            if (flight == null) {
+                releasePermit();
+                logShortCircuit(AccessLog.Event.COALESCED, 0);
+                return RequestCoalescer.placeholder();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public InetSocketAddress proxyToServerResolutionStarted(String resolvingServerHostAndPort) {
+        timer.resolveStart = System.nanoTime();
+        return null;
+    }
+
+    @Override
+    public void proxyToServerResolutionSucceeded(String serverHostAndPort, InetSocketAddress resolvedRemoteAddress) {
+        timer.resolveEnd = System.nanoTime();
+    }
+
+    @Override
+    public void proxyToServerConnectionStarted() {
+        timer.connectStart = System.nanoTime();
+        if (timer.tunnel) {
+            // Reported from the server channel's event loop, which counted the tunnel's bytes
+            timer.onClose = future -> tunnelClosed();
+            metrics.tunnelConnecting(ctx.channel().remoteAddress(), timer);
+        }
+    }
+
+    @Override
+    public void proxyToServerConnectionSucceeded(ChannelHandlerContext serverCtx) {
+        // Not called for every tunnel; TunnelMonitor sees those established
+        if (!timer.tunnel) {
+            timer.connected = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void proxyToServerRequestSent() {
+        timer.requestSent = System.nanoTime();
+    }
+
+    @Override
+    public void serverToProxyResponseReceiving() {
+        if (timer.firstByte == 0) {
+            timer.firstByte = System.nanoTime();
+        }
+    }
+
+    @Override
+    public HttpObject serverToProxyResponse(HttpObject httpObject) {
+        if (httpObject instanceof HttpResponse) {
+            HttpResponse response = (HttpResponse) httpObject;
+            status = response.status().code();
+            if (timer.firstByte == 0) {
+                timer.firstByte = System.nanoTime();
+            }
+            metrics.host(host()).response.recordNanos(System.nanoTime() - startNanos);
+            if (gate != null && gate.current() != null) {
+                gate.current().onResponse(status);
+            }
+
+            // Repository misses are remembered and counted rather than logged one by one
+            boolean negative = negativeKey != 0 && NegativeCache.isNegative(status);
+            if (negative) {
+                negativeCache.put(negativeKey, status);
+            }
+
+            // Always log errors (4xx/5xx), log all responses in verbose mode
+            if ((status >= 400 && !negative) || verbose) {
+                log.response(method, uri, status, startNanos);
+            }
+
+            if (cacheUrl != null && status == 200 && !response.headers().contains(HttpHeaderNames.CONTENT_ENCODING)) {
+                beginCacheWrite(response);
+                if (prefetcher != null && DependencyPrefetcher.isMetadata(cacheUrl)) {
+                    long length = HttpUtil.getContentLength(response, -1L);
+                    if (length <= DependencyPrefetcher.MAX_METADATA_BYTES) {
+                        metadata = new byte[length >= 0 ? (int) length : 16 * 1024];
+                        metadataLength = 0;
+                    }
+                }
+            }
+        }
+        if (httpObject instanceof HttpContent) {
+            timer.bytesDown += ((HttpContent) httpObject).content().readableBytes();
+            if (httpObject instanceof LastHttpContent) {
+                timer.completed = System.nanoTime();
+                report(AccessLog.Event.COMPLETED);
+            }
+        }
+        if (metadata != null && httpObject instanceof HttpContent) {
+            collectMetadata((HttpContent) httpObject);
+        }
+        if (cacheWriter != null && httpObject instanceof HttpContent) {
+            cacheWriter.write(((HttpContent) httpObject).content());
+            if (httpObject instanceof LastHttpContent) {
+                endCacheWrite(expectedLength < 0 || cacheWriter.bodyLength() == expectedLength);
+            }
+        }
+        return httpObject;
+    }
+
+    @Override
+    public HttpObject proxyToClientResponse(HttpObject httpObject) {
+        if (flight != null) {
+            flight.relay(httpObject);
+            if (httpObject instanceof LastHttpContent) {
+                flight = null;
+            }
+        }
+        if (httpObject instanceof LastHttpContent) {
+            releasePermit();
+        }
+        return httpObject;
+    }
+
+    @Override
+    public void proxyToServerConnectionFailed() {
+        if (timer.tunnel) {
+            metrics.tunnelConnectFailed(ctx.channel().remoteAddress(), timer);
+        }
+        if (gate != null && gate.current() != null) {
+            gate.current().onFailure();
+        }
+    }
+
+    @Override
+    public void serverToProxyResponseTimedOut() {
+        log.timeout(method, uri);
+        metadata = null;
+        metrics.timeouts.increment();
+        if (gate != null && gate.current() != null) {
+            gate.current().onFailure();
+        }
+        abortCacheWrite();
+        if (flight != null) {
+            flight.fail();
+            flight = null;
+        }
+    }
+
+    private void tunnelClosed() {
+        timer.completed = System.nanoTime();
+        report(AccessLog.Event.TUNNEL_CLOSED);
+    }
+
+    /**
+     * Records the phases of a finished request or tunnel, logging them in verbose mode or if it was slow to start.
+     */
+    private void report(AccessLog.Event event) {
+        metrics.recordPhases(timer);
+        boolean slow = slowNanos > 0 && timer.latencyNanos() > slowNanos;
+        if (slow) {
+            metrics.slowRequests.increment();
+        }
+        if (slow || verbose) {
+            log.timed(event, method, uri, status, timer, slow);
+        }
+    }
+
+    private void logShortCircuit(AccessLog.Event event, int status) {
+        if (verbose) {
+            log.shortCircuit(event, method, uri, status, startNanos);
+        }
+    }
+
+    private String host() {
+        if (host == null) {
+            host = Metrics.hostOf(originalRequest, ctx.channel());
+        }
+        return host;
+    }
+
+    private void releasePermit() {
+        if (gate != null) {
+            gate.release();
+        }
+    }
+
+    private void beginCacheWrite(HttpResponse response) {
+        cacheWriter = cache.begin(cacheUrl, response.headers().get(HttpHeaderNames.ETAG));
+        if (cacheWriter == null) {
+            return;
+        }
+        expectedLength = HttpUtil.getContentLength(response, -1L);
+        if (expectedLength >= 0 && !cacheWriter.fits(expectedLength)) {
+            abortCacheWrite();
+            return;
+        }
+        ArtifactCache.Writer writer = cacheWriter;
+        abortOnClose = future -> writer.abort();
+        ctx.channel().closeFuture().addListener(abortOnClose);
+    }
+
+    private void collectMetadata(HttpContent content) {
+        ByteBuf bytes = content.content();
+        int readable = bytes.readableBytes();
+        if (metadataLength + readable > metadata.length) {
+            if (metadataLength + readable > DependencyPrefetcher.MAX_METADATA_BYTES) {
+                metadata = null;
+                return;
+            }
+            metadata = Arrays.copyOf(
+                    metadata,
+                    Math.min(
+                            DependencyPrefetcher.MAX_METADATA_BYTES,
+                            Math.max(metadata.length * 2, metadataLength + readable)));
+        }
+        bytes.getBytes(bytes.readerIndex(), metadata, metadataLength, readable);
+        metadataLength += readable;
+        if (content instanceof LastHttpContent) {
+            prefetcher.observe(cacheUrl, metadata, metadataLength);
+            metadata = null;
+        }
+    }
+
+    private void abortCacheWrite() {
+        if (cacheWriter != null) {
+            endCacheWrite(false);
+        }
+    }
+
+    private void endCacheWrite(boolean commit) {
+        if (abortOnClose != null) {
+            ctx.channel().closeFuture().removeListener(abortOnClose);
+            abortOnClose = null;
+        }
+        if (commit) {
+            cacheWriter.commit();
+        } else {
+            cacheWriter.abort();
+        }
+        cacheWriter = null;
+    }
+
+    /**
+     * Waits for LittleProxy's response to a CONNECT, which it writes straight to the client without passing it
+     * through the filters, to time the tunnel setup and count the tunnel until the client disconnects.
+     */
+    private static final class TunnelMonitor extends ChannelOutboundHandlerAdapter {
+        static final String NAME = "ccw-tunnel-metrics";
+
+        private final Metrics metrics;
+        private final HttpRequest connect;
+        private final PhaseTimer timer;
+
+        TunnelMonitor(Metrics metrics, HttpRequest connect, PhaseTimer timer) {
+            this.metrics = metrics;
+            this.connect = connect;
+            this.timer = timer;
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (msg instanceof HttpResponse) {
+                ctx.pipeline().remove(this);
+                if (((HttpResponse) msg).status().code() == 200) {
+                    timer.connected = System.nanoTime();
+                    metrics.host(Metrics.hostOf(connect)).connect.recordNanos(timer.connected - timer.received);
+                    metrics.activeTunnels.increment();
+                    ctx.channel().closeFuture().addListener(metrics.tunnelClosed);
+                }
+            }
+            super.write(ctx, msg, promise);
+        }
+    }
+}
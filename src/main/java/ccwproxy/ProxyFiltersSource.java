@@ -0,0 +1,99 @@
+package ccwproxy;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpRequest;
+import org.littleshoot.proxy.HttpFilters;
+import org.littleshoot.proxy.HttpFiltersSourceAdapter;
+
+/**
+ * Creates the {@link ProxyFilters} for each request.
+ */
+final class ProxyFiltersSource extends HttpFiltersSourceAdapter {
+
+    // Reloadable; each request keeps the values it started with
+    private volatile boolean verbose;
+    private volatile long slowNanos;
+    private final AccessLog log;
+    private final Metrics metrics;
+    private final BufferBudget budget;
+    private final ArtifactCache cache;
+    private final NegativeCache negativeCache;
+    private final DependencyPrefetcher prefetcher;
+    private final RequestCoalescer coalescer;
+    private final ConcurrencyLimiter limiter;
+    private final InterceptingMitmManager mitm;
+
+    ProxyFiltersSource(
+            boolean verbose,
+            long slowNanos,
+            AccessLog log,
+            Metrics metrics,
+            BufferBudget budget,
+            ArtifactCache cache,
+            NegativeCache negativeCache,
+            DependencyPrefetcher prefetcher,
+            RequestCoalescer coalescer,
+            ConcurrencyLimiter limiter,
+            InterceptingMitmManager mitm) {
+        this.verbose = verbose;
+        this.slowNanos = slowNanos;
+        this.log = log;
+        this.metrics = metrics;
+        this.budget = budget;
+        this.cache = cache;
+        this.negativeCache = negativeCache;
+        this.prefetcher = prefetcher;
+        this.coalescer = coalescer;
+        this.limiter = limiter;
+        this.mitm = mitm;
+    }
+
+    void configure(boolean verbose, long slowNanos) {
+        this.verbose = verbose;
+        this.slowNanos = slowNanos;
+    }
+
+    /**
+     * Zero: requests are never aggregated, so LittleProxy adds no {@code HttpObjectAggregator} and bodies stream
+     * through in the chunks they arrive in.
+     */
+    @Override
+    public int getMaximumRequestBufferSizeInBytes() {
+        return 0;
+    }
+
+    /**
+     * Zero, as for requests: the filters see each response chunk as it arrives, and a download of any size holds only
+     * what is in flight.
+     */
+    @Override
+    public int getMaximumResponseBufferSizeInBytes() {
+        return 0;
+    }
+
+    @Override
+    public HttpFilters filterRequest(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+        budget.install(ctx.channel());
+        boolean verbose = this.verbose;
+        // A queued request fed back by the limiter was counted when it first arrived
+        if (limiter == null || !ConcurrencyLimiter.isResuming(ctx.channel())) {
+            metrics.requestReceived();
+            if (verbose) {
+                log.request(originalRequest.method().name(), originalRequest.uri());
+            }
+        }
+        return new ProxyFilters(
+                originalRequest,
+                ctx,
+                verbose,
+                slowNanos,
+                log,
+                metrics,
+                cache,
+                negativeCache,
+                prefetcher,
+                coalescer,
+                limiter,
+                mitm);
+    }
+}
@@ -0,0 +1,166 @@
+package ccwproxy;
+
+import io.netty.channel.Channel;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.HttpProxyServerBootstrap;
+
+/**
+ * The proxy's listening socket and the servers behind it. A reload can move the listener to another address, and
+ * draining hands the port over to a replacement sharing it, while connections already accepted carry on.
+ */
+final class ProxyListener {
+
+    // How long to wait for a port held by a process that does not share it, e.g. a version being replaced
+    static final Duration BIND_RETRY = Duration.ofSeconds(10);
+
+    private final ReusePortServerGroup serverGroup;
+    // Servers whose listener was moved to another address; they still serve the connections they accepted
+    private final List<HttpProxyServer> retired = new ArrayList<>();
+    private volatile HttpProxyServer server;
+    private volatile boolean accepting = true;
+
+    private ProxyListener(ReusePortServerGroup serverGroup, HttpProxyServer server) {
+        this.serverGroup = serverGroup;
+        this.server = server;
+    }
+
+    /**
+     * Starts {@code bootstrap}, which must use {@code serverGroup}, on {@code address}. The group is shut down if that
+     * fails.
+     */
+    static ProxyListener start(
+            ReusePortServerGroup serverGroup, HttpProxyServerBootstrap bootstrap, InetSocketAddress address)
+            throws IOException {
+        try {
+            return new ProxyListener(serverGroup, bindWithRetry(address, () -> {
+                try {
+                    return bootstrap.withAddress(address).start();
+                } catch (RuntimeException e) {
+                    if (e.getCause() instanceof BindException) {
+                        throw (BindException) e.getCause();
+                    }
+                    throw e;
+                }
+            }));
+        } catch (IOException | RuntimeException e) {
+            serverGroup.shutdown(false);
+            throw e;
+        }
+    }
+
+    interface Binding<T> {
+        T bind() throws IOException;
+    }
+
+    /**
+     * Binds {@code address}, retrying for {@link #BIND_RETRY} while it is in use. Instances of this proxy share the
+     * proxy port, but an older version being replaced holds it until it is told to stop, and the admin port is never
+     * shared.
+     */
+    static <T> T bindWithRetry(InetSocketAddress address, Binding<T> binding) throws IOException {
+        long deadline = System.nanoTime() + BIND_RETRY.toNanos();
+        boolean reported = false;
+        while (true) {
+            try {
+                return binding.bind();
+            } catch (BindException e) {
+                if (System.nanoTime() - deadline > 0) {
+                    throw e;
+                }
+                if (!reported) {
+                    System.out.println("[ccw-proxy] " + address.getHostString() + ":" + address.getPort()
+                            + " is in use, waiting up to " + BIND_RETRY.toSeconds() + "s for it to be released");
+                    reported = true;
+                }
+                try {
+                    TimeUnit.MILLISECONDS.sleep(250);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    InetSocketAddress address() {
+        return server.getListenAddress();
+    }
+
+    /**
+     * Whether new connections are accepted, that is the listener has not been drained or stopped.
+     */
+    boolean accepting() {
+        return accepting;
+    }
+
+    /**
+     * Listens on {@code address} instead, with the same filters, upstreams and trackers. Connections accepted on the
+     * old address carry on. Throws if the new address cannot be bound or the listener is draining, leaving it where it
+     * was.
+     */
+    synchronized void move(InetSocketAddress address) {
+        if (!accepting) {
+            throw new IllegalStateException("Draining");
+        }
+        List<Channel> previous = serverGroup.listeners();
+        HttpProxyServer moved = server.clone()
+                .withAddress(address)
+                .withAllowLocalOnly(true)
+                .start();
+        previous.forEach(listener -> listener.close().syncUninterruptibly());
+        retired.add(server);
+        server = moved;
+    }
+
+    void setIdleTimeout(Duration timeout) {
+        server.setIdleConnectionTimeout(timeout);
+    }
+
+    /**
+     * Stops accepting connections and waits up to {@code timeout} for {@code openConnections} to reach zero, so that
+     * a replacement sharing the port takes over without interrupting downloads. Busy connections close when their
+     * clients are done; idle keep-alive connections once they reach the idle timeout. Returns how many are still open.
+     */
+    long drain(Duration timeout, LongSupplier openConnections) {
+        synchronized (this) {
+            accepting = false;
+            for (Channel listener : serverGroup.listeners()) {
+                listener.close().syncUninterruptibly();
+            }
+        }
+        System.out.println("[ccw-proxy] draining: no longer accepting connections, waiting up to " + timeout.toSeconds()
+                + "s for " + openConnections.getAsLong() + " open connections");
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (openConnections.getAsLong() > 0 && System.nanoTime() - deadline < 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        long open = openConnections.getAsLong();
+        if (open > 0) {
+            System.out.println("[ccw-proxy] drain timed out, closing " + open + " connections");
+        }
+        return open;
+    }
+
+    /**
+     * Closes the listener and all open connections, and shuts down the event loops.
+     */
+    synchronized void stop() {
+        accepting = false;
+        retired.forEach(HttpProxyServer::stop);
+        server.stop();
+        serverGroup.shutdown(true);
+    }
+}
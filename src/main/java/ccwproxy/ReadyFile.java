@@ -0,0 +1,52 @@
+package ccwproxy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The file named by {@code CCW_PROXY_READY_FILE}: holds {@code "<pid> <host>:<port>"} while this process accepts
+ * connections, so scripts can wait for a replacement to be ready before stopping the previous instance.
+ */
+final class ReadyFile {
+
+    private final Path file;
+    private final long pid;
+
+    ReadyFile(Path file) {
+        this(file, ProcessHandle.current().pid());
+    }
+
+    ReadyFile(Path file, long pid) {
+        this.file = file;
+        this.pid = pid;
+    }
+
+    /**
+     * Records that connections are accepted on {@code host:port}. The file is replaced atomically, so a reader never
+     * sees it partly written.
+     */
+    void write(String host, int port) {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.writeString(tmp, pid + " " + host + ":" + port + "\n");
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("[ccw-proxy] cannot write " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the file, unless a replacement has already written its own.
+     */
+    void delete() {
+        try {
+            if (Files.readString(file).startsWith(pid + " ")) {
+                Files.delete(file);
+            }
+        } catch (IOException e) {
+            // Already gone
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package ccwproxy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.AsciiString;
+import io.netty.util.ReferenceCountUtil;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collapses concurrent identical GETs into a single upstream request.
+ *
+ * <p>The first request for a key leads a {@link Flight} and is proxied as usual; its response is relayed, object by
+ * object, to every request for the same key that arrives while it is in progress. Followers short-circuit LittleProxy
+ * with a {@link #placeholder()} response that is dropped before the encoder, so the relayed head and body are the only
+ * bytes they see. Objects already relayed are kept (up to {@link #MAX_REPLAY_BYTES}) so late joiners start from the
+ * beginning of the response; once a flight outgrows that, new requests for the key start a flight of their own. A
+ * follower that cannot keep up marks the leader's channel not writable until it catches up, so the upstream is read no
+ * faster than the slowest client.
+ */
+final class RequestCoalescer {
+
+    static final int MAX_REPLAY_BYTES = 16 * 1024 * 1024;
+
+    private static final String HANDLER_NAME = "ccw-coalesce";
+    private static final ChannelHandler PLACEHOLDER_FILTER = new PlaceholderFilter();
+    private static final int[] NO_STARTS = new int[0];
+
+    final LongAdder coalesced = new LongAdder();
+
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    /**
+     * Returns true for plain HTTP/1.1 GETs whose response does not depend on per-client state.
+     */
+    static boolean isCoalescible(HttpRequest request) {
+        if (!HttpMethod.GET.equals(request.method()) || !HttpVersion.HTTP_1_1.equals(request.protocolVersion())) {
+            return false;
+        }
+        // Walks the header entries in place; names() would copy them into a set
+        Iterator<Map.Entry<CharSequence, CharSequence>> headers =
+                request.headers().iteratorCharSequence();
+        while (headers.hasNext()) {
+            CharSequence name = headers.next().getKey();
+            if (AsciiString.regionMatches(name, true, 0, "if-", 0, 3)
+                    || AsciiString.contentEqualsIgnoreCase(name, HttpHeaderNames.RANGE)
+                    || AsciiString.contentEqualsIgnoreCase(name, HttpHeaderNames.AUTHORIZATION)
+                    || AsciiString.contentEqualsIgnoreCase(name, HttpHeaderNames.COOKIE)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Key under which concurrent requests are coalesced: the absolute URL plus the encodings the client accepts.
+     */
+    static String keyOf(HttpRequest request) {
+        String acceptEncoding = request.headers().get(HttpHeaderNames.ACCEPT_ENCODING);
+        String url = ArtifactCache.urlOf(request);
+        return acceptEncoding == null ? url : url + " " + acceptEncoding;
+    }
+
+    /**
+     * Attaches {@code channel} to the flight in progress for {@code key} and returns null, in which case the caller
+     * must short-circuit with {@link #placeholder()}. If no flight can be joined, starts one led by {@code channel}
+     * and returns it; the caller then proxies the request and reports the response through {@link Flight#relay}.
+     */
+    Flight leadOrFollow(String key, Channel channel, boolean keepAlive) {
+        while (true) {
+            Flight flight = flights.get(key);
+            if (flight == null) {
+                Flight created = new Flight(key, channel);
+                if (flights.putIfAbsent(key, created) == null) {
+                    channel.closeFuture().addListener(created.leaderClosed);
+                    return created;
+                }
+            } else if (flight.follow(channel, keepAlive)) {
+                suppressPlaceholders(channel.pipeline());
+                coalesced.increment();
+                return null;
+            } else {
+                flights.remove(key, flight);
+            }
+        }
+    }
+
+    int inFlight() {
+        return flights.size();
+    }
+
+    /**
+     * Response handed to LittleProxy for a follower or a queued request; it is never written to the client.
+     */
+    static HttpResponse placeholder() {
+        return new Placeholder();
+    }
+
+    /**
+     * Makes sure {@link #placeholder()} responses written on {@code pipeline} are dropped.
+     */
+    static void suppressPlaceholders(ChannelPipeline pipeline) {
+        if (pipeline.get(HANDLER_NAME) == null) {
+            pipeline.addBefore("handler", HANDLER_NAME, PLACEHOLDER_FILTER);
+        }
+    }
+
+    private static final class Placeholder extends DefaultHttpResponse {
+        Placeholder() {
+            super(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private static final class PlaceholderFilter extends ChannelOutboundHandlerAdapter {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+            if (msg instanceof Placeholder) {
+                promise.setSuccess();
+                return;
+            }
+            ctx.write(msg, promise);
+        }
+    }
+
+    private static ChannelFuture send(Follower follower, HttpObject object) {
+        if (!follower.channel.isActive()) {
+            return null;
+        }
+        return follower.channel.writeAndFlush(retain(object)).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+    }
+
+    /**
+     * Returns a copy of {@code object} that can be written independently of the original.
+     */
+    private static HttpObject retain(HttpObject object) {
+        if (object instanceof HttpContent) {
+            ByteBuf content = ((HttpContent) object).content();
+            return ((HttpContent) object).replace(content.retainedDuplicate());
+        }
+        if (object instanceof HttpResponse) {
+            HttpResponse head = (HttpResponse) object;
+            return new DefaultHttpResponse(
+                    head.protocolVersion(), head.status(), head.headers().copy());
+        }
+        return object;
+    }
+
+    private record Follower(Channel channel, boolean keepAlive) {}
+
+    /**
+     * One upstream request and the clients waiting on its response. All state is guarded by the flight's monitor so
+     * that replay and live relay reach each follower in order.
+     */
+    final class Flight {
+
+        private final String key;
+        private final Channel leader;
+        private final ChannelFutureListener leaderClosed = future -> fail();
+        private final List<Follower> followers = new ArrayList<>();
+        // Followers holding back the leader; most flights never have one, so created on demand
+        private Set<Channel> slow;
+        // A copy of the head, then the leader's own body chunks, retained as they are; each chunk is only duplicated
+        // for a follower that joins, from the reader index it was relayed at
+        private List<HttpObject> replay = new ArrayList<>();
+        private int[] replayStarts = NO_STARTS;
+        private long replayBytes;
+        private boolean headRelayed;
+        private boolean done;
+
+        private Flight(String key, Channel leader) {
+            this.key = key;
+            this.leader = leader;
+        }
+
+        private synchronized boolean follow(Channel channel, boolean keepAlive) {
+            if (done || replay == null) {
+                return false;
+            }
+            Follower follower = new Follower(channel, keepAlive);
+            for (int i = 0; i < replay.size(); i++) {
+                sendPaced(follower, replayed(i));
+            }
+            followers.add(follower);
+            return true;
+        }
+
+        /**
+         * Relays an object the leader is about to write to its own client.
+         */
+        synchronized void relay(HttpObject object) {
+            if (done) {
+                return;
+            }
+            if (object instanceof HttpResponse) {
+                if (headRelayed) {
+                    // A second head means LittleProxy gave up on the first response (e.g. a 504 after a timeout)
+                    fail();
+                    return;
+                }
+                headRelayed = true;
+            }
+            if (replay != null) {
+                if (object instanceof HttpContent) {
+                    ByteBuf content = ((HttpContent) object).content();
+                    if (replay.size() >= replayStarts.length) {
+                        replayStarts = Arrays.copyOf(replayStarts, Math.max(16, replayStarts.length * 2));
+                    }
+                    replayStarts[replay.size()] = content.readerIndex();
+                    replay.add(ReferenceCountUtil.retain(object));
+                    replayBytes += content.readableBytes();
+                } else {
+                    replay.add(retain(object));
+                }
+                if (replayBytes > MAX_REPLAY_BYTES) {
+                    // Too large to replay for late joiners; later requests start a flight of their own
+                    releaseReplay();
+                    flights.remove(key, this);
+                }
+            }
+            for (Follower follower : followers) {
+                sendPaced(follower, object);
+            }
+            if (object instanceof LastHttpContent) {
+                finish();
+                for (Follower follower : followers) {
+                    if (!follower.keepAlive) {
+                        follower.channel.close();
+                    }
+                }
+            }
+        }
+
+        private void sendPaced(Follower follower, HttpObject object) {
+            ChannelFuture written = send(follower, object);
+            if (written == null || follower.channel.isWritable()) {
+                return;
+            }
+            if (slow == null) {
+                slow = new HashSet<>();
+            }
+            if (slow.add(follower.channel)) {
+                if (slow.size() == 1) {
+                    BufferBudget.setWritable(leader, BufferBudget.SLOW_FOLLOWER, false);
+                }
+                // Everything up to this object has been flushed once it completes
+                written.addListener(future -> caughtUp(follower.channel));
+            }
+        }
+
+        private synchronized void caughtUp(Channel channel) {
+            if (slow != null && slow.remove(channel) && slow.isEmpty()) {
+                BufferBudget.setWritable(leader, BufferBudget.SLOW_FOLLOWER, true);
+            }
+        }
+
+        /**
+         * Abandons the flight: followers still waiting for a head get a 502, the rest are disconnected.
+         */
+        synchronized void fail() {
+            if (done) {
+                return;
+            }
+            finish();
+            for (Follower follower : followers) {
+                if (headRelayed) {
+                    follower.channel.close();
+                } else {
+                    FullHttpResponse badGateway =
+                            new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_GATEWAY);
+                    HttpUtil.setContentLength(badGateway, 0);
+                    follower.channel.writeAndFlush(badGateway).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+                }
+            }
+        }
+
+        private void finish() {
+            done = true;
+            flights.remove(key, this);
+            leader.closeFuture().removeListener(leaderClosed);
+            releaseReplay();
+        }
+
+        /**
+         * Replay entry {@code i} as it was relayed. Writing a chunk to the leader's client consumes it, but its bytes
+         * stay in place while the replay holds on to it.
+         */
+        private HttpObject replayed(int i) {
+            HttpObject object = replay.get(i);
+            if (object instanceof HttpContent) {
+                ByteBuf content = ((HttpContent) object).content();
+                int start = replayStarts[i];
+                return ((HttpContent) object).replace(content.slice(start, content.writerIndex() - start));
+            }
+            return object;
+        }
+
+        private void releaseReplay() {
+            if (replay != null) {
+                replay.forEach(ReferenceCountUtil::release);
+                replay = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package ccwproxy;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.MultiThreadIoEventLoopGroup;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.channel.socket.nio.NioChannelOption;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.net.StandardSocketOptions;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.littleshoot.proxy.TransportProtocol;
+import org.littleshoot.proxy.impl.ServerGroup;
+
+/**
+ * LittleProxy's thread pools, except that listening sockets are bound with {@code SO_REUSEPORT} and kept track of.
+ *
+ * <p>With the option set, a newly started proxy can bind the port while the previous one still listens on it, so
+ * there is no moment where clients are refused; the old process then {@linkplain #listeners() closes its listener} and
+ * finishes the connections it already accepted. LittleProxy does not expose options for its server socket, so they are
+ * set as the socket is registered with the acceptor loop, which happens before it is bound.
+ *
+ * <p>All three pools are created here rather than by {@link ServerGroup}, which only builds its own the first time one
+ * is asked for, so the process runs no acceptor besides the one above. They stay on NIO: LittleProxy creates its
+ * channels as {@code NioServerSocketChannel} and {@code NioSocketChannel}, which only an NIO loop can serve.
+ */
+final class ReusePortServerGroup extends ServerGroup {
+
+    private static final ChannelOption<Boolean> REUSE_PORT = NioChannelOption.of(StandardSocketOptions.SO_REUSEPORT);
+
+    private final List<Channel> listeners = new CopyOnWriteArrayList<>();
+    // A single listening socket only ever keeps one acceptor thread busy
+    private final EventLoopGroup acceptor =
+            new MultiThreadIoEventLoopGroup(
+                    1, new DefaultThreadFactory("ccw-proxy-acceptor", true), NioIoHandler.newFactory()) {
+                @Override
+                public ChannelFuture register(Channel channel) {
+                    channel.config().setOption(REUSE_PORT, true);
+                    listeners.add(channel);
+                    channel.closeFuture().addListener(future -> listeners.remove(channel));
+                    return super.register(channel);
+                }
+            };
+    private final EventLoopGroup clientWorkers;
+    private final EventLoopGroup serverWorkers;
+
+    ReusePortServerGroup(int threads) {
+        // Outlives individual servers, which a reload may replace; shut down explicitly. The thread counts are never
+        // used, as the group's own pools are not; zero would mean Netty's default of two per core, should they be.
+        super("ccw-proxy", 1, 1, 1, false);
+        clientWorkers = new MultiThreadIoEventLoopGroup(
+                threads, new DefaultThreadFactory("ccw-proxy-client", true), NioIoHandler.newFactory());
+        serverWorkers = new MultiThreadIoEventLoopGroup(
+                threads, new DefaultThreadFactory("ccw-proxy-server", true), NioIoHandler.newFactory());
+    }
+
+    @Override
+    public EventLoopGroup getClientToProxyAcceptorPoolForTransport(TransportProtocol protocol) {
+        return acceptor;
+    }
+
+    @Override
+    public EventLoopGroup getClientToProxyWorkerPoolForTransport(TransportProtocol protocol) {
+        return clientWorkers;
+    }
+
+    @Override
+    public EventLoopGroup getProxyToServerWorkerPoolForTransport(TransportProtocol protocol) {
+        return serverWorkers;
+    }
+
+    /**
+     * Listening sockets that are still open, oldest first.
+     */
+    List<Channel> listeners() {
+        return List.copyOf(listeners);
+    }
+
+    @Override
+    public void shutdown(boolean graceful) {
+        super.shutdown(graceful);
+        List<EventLoopGroup> groups = List.of(acceptor, clientWorkers, serverWorkers);
+        for (EventLoopGroup group : groups) {
+            if (graceful) {
+                group.shutdownGracefully();
+            } else {
+                group.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+            }
+        }
+        if (graceful) {
+            // As LittleProxy does for its own pools
+            groups.forEach(group -> group.terminationFuture().awaitUninterruptibly());
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package ccwproxy;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times the phases of startup, so the summary shows where the time before the first accepted connection went.
+ */
+final class StartupTimer {
+
+    private final long started = System.nanoTime();
+    private final List<String> phases = new ArrayList<>();
+    private long last = started;
+
+    /**
+     * Ends the current phase, naming it {@code phase}.
+     */
+    void mark(String phase) {
+        long now = System.nanoTime();
+        phases.add(phase + " " + millis(now - last));
+        last = now;
+    }
+
+    /**
+     * For example {@code ready in 41ms (log 0ms, cache 12ms, listen 27ms), 180ms after the process started}.
+     */
+    String summary() {
+        StringBuilder out = new StringBuilder("ready in ")
+                .append(millis(last - started))
+                .append(" (")
+                .append(String.join(", ", phases))
+                .append(')');
+        // Includes runtime initialization and class loading before main, which is what a native image saves
+        ProcessHandle.current().info().startInstant().ifPresent(start -> out.append(", ")
+                .append(Duration.between(start, Instant.now()).toMillis())
+                .append("ms after the process started"));
+        return out.toString();
+    }
+
+    private static String millis(long nanos) {
+        return nanos / 1_000_000 + "ms";
+    }
+}
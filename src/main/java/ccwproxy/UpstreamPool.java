@@ -0,0 +1,159 @@
+package ccwproxy;
+
+import io.netty.handler.codec.http.HttpRequest;
+import java.io.IOException;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.littleshoot.proxy.ChainedProxy;
+import org.littleshoot.proxy.ChainedProxyAdapter;
+import org.littleshoot.proxy.ChainedProxyManager;
+import org.littleshoot.proxy.impl.ClientDetails;
+
+/**
+ * Chooses the upstream proxy for each new server connection.
+ *
+ * <p>Upstreams are ordered by {@link UpstreamProxy#score()} (connect latency times open connections), healthy ones
+ * first. Every upstream is queued, so when a connection fails LittleProxy falls back to the next one instead of failing
+ * the client; unhealthy upstreams stay at the end as a last resort. An upstream is taken out of rotation when a
+ * connection to it fails and put back once a background probe can connect to it again. Destinations matching the
+ * {@link DirectRoutes} skip the upstreams and are connected to directly. Both can be {@linkplain #reconfigure replaced}
+ * while connections are being made; connections already made keep their upstream.
+ */
+final class UpstreamPool implements ChainedProxyManager, AutoCloseable {
+
+    static final Duration PROBE_INTERVAL = Duration.ofSeconds(5);
+    static final Duration PROBE_TIMEOUT = Duration.ofSeconds(2);
+
+    final LongAdder direct = new LongAdder();
+
+    private volatile UpstreamProxy[] upstreams;
+    private volatile DirectRoutes directRoutes;
+    private final AccessLog log;
+    private Thread prober;
+
+    private volatile boolean closed;
+
+    UpstreamPool(List<UpstreamProxy> upstreams, AccessLog log) {
+        this(upstreams, DirectRoutes.NONE, log);
+    }
+
+    UpstreamPool(List<UpstreamProxy> upstreams, DirectRoutes directRoutes, AccessLog log) {
+        this.upstreams = upstreams.toArray(new UpstreamProxy[0]);
+        this.directRoutes = directRoutes;
+        this.log = log;
+    }
+
+    /**
+     * Switches to new upstreams and direct routes; upstreams that did not change should be passed in as the same
+     * instances to keep their health and latency.
+     */
+    void reconfigure(List<UpstreamProxy> upstreams, DirectRoutes directRoutes) {
+        this.upstreams = upstreams.toArray(new UpstreamProxy[0]);
+        this.directRoutes = directRoutes;
+    }
+
+    /**
+     * Starts probing upstreams in the background. With a single upstream there is nothing to fail over to, so this
+     * does nothing.
+     */
+    void startProbing() {
+        if (upstreams.length > 1 && prober == null) {
+            prober = Thread.ofPlatform().name("ccw-proxy-health").daemon().start(this::probeLoop);
+        }
+    }
+
+    @Override
+    public void lookupChainedProxies(
+            HttpRequest httpRequest, Queue<ChainedProxy> chainedProxies, ClientDetails clientDetails) {
+        DirectRoutes routes = directRoutes;
+        if (!routes.isEmpty() && routes.isDirect(httpRequest)) {
+            direct.increment();
+            chainedProxies.add(ChainedProxyAdapter.FALLBACK_TO_DIRECT_CONNECTION);
+            return;
+        }
+        UpstreamProxy[] current = upstreams;
+        if (current.length == 1) {
+            chainedProxies.add(current[0].newAttempt());
+            return;
+        }
+        for (UpstreamProxy upstream : ordered(current)) {
+            chainedProxies.add(upstream.newAttempt());
+        }
+    }
+
+    /**
+     * Upstreams from most to least preferred. Scores change concurrently, so they are read once before sorting.
+     */
+    private static UpstreamProxy[] ordered(UpstreamProxy[] upstreams) {
+        int count = upstreams.length;
+        UpstreamProxy[] ordered = upstreams.clone();
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            // Unhealthy upstreams sort after every healthy one
+            long score = Math.min(ordered[i].score(), Long.MAX_VALUE / 2);
+            keys[i] = ordered[i].healthy() ? score : Long.MAX_VALUE / 2 + score;
+        }
+        // Insertion sort: there are only a handful of upstreams
+        for (int i = 1; i < count; i++) {
+            UpstreamProxy upstream = ordered[i];
+            long key = keys[i];
+            int j = i - 1;
+            while (j >= 0 && keys[j] > key) {
+                ordered[j + 1] = ordered[j];
+                keys[j + 1] = keys[j];
+                j--;
+            }
+            ordered[j + 1] = upstream;
+            keys[j + 1] = key;
+        }
+        return ordered;
+    }
+
+    List<UpstreamProxy> upstreams() {
+        return List.of(upstreams);
+    }
+
+    /**
+     * Connects to every upstream once, updating its health and latency.
+     */
+    void probe() {
+        for (UpstreamProxy upstream : upstreams) {
+            long start = System.nanoTime();
+            try (Socket socket = new Socket()) {
+                socket.connect(upstream.address(), (int) PROBE_TIMEOUT.toMillis());
+                upstream.recordLatency(System.nanoTime() - start);
+                if (upstream.markHealthy()) {
+                    log.message("upstream " + upstream + " back in rotation");
+                }
+            } catch (IOException e) {
+                if (upstream.markUnhealthy()) {
+                    log.message("upstream " + upstream + " taken out of rotation - "
+                            + e.getClass().getSimpleName() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void probeLoop() {
+        while (!closed) {
+            probe();
+            try {
+                TimeUnit.MILLISECONDS.sleep(PROBE_INTERVAL.toMillis());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (prober != null) {
+            prober.interrupt();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package ccwproxy;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.util.AsciiString;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLException;
+import org.littleshoot.proxy.ChainedProxy;
+import org.littleshoot.proxy.ChainedProxyAdapter;
+
+/**
+ * One authenticated upstream proxy and the load and health state {@link UpstreamPool} balances on. A single instance
+ * is shared by all requests; LittleProxy is handed a lightweight {@link #newAttempt() attempt} per connection so that
+ * connects and disconnects can be paired.
+ */
+final class UpstreamProxy {
+
+    // Weight of a new sample when it is faster than the average; slower samples replace it outright (peak EWMA)
+    private static final double EWMA_ALPHA = 0.3;
+
+    private final CachedAddress address;
+    // Encoded once; Netty copies an AsciiString's bytes straight into the request head
+    private final AsciiString proxyAuthorization;
+    private final AccessLog log;
+    private final Metrics metrics;
+
+    // Open connections through this upstream
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong latencyNanos = new AtomicLong();
+    private final AtomicBoolean healthy = new AtomicBoolean(true);
+
+    UpstreamProxy(CachedAddress address, String basicAuth, AccessLog log, Metrics metrics) {
+        this.address = address;
+        this.log = log;
+        this.metrics = metrics;
+        this.proxyAuthorization = AsciiString.cached("Basic " + basicAuth);
+    }
+
+    InetSocketAddress address() {
+        return address.get();
+    }
+
+    boolean healthy() {
+        return healthy.get();
+    }
+
+    int outstanding() {
+        return outstanding.get();
+    }
+
+    long latencyNanos() {
+        return latencyNanos.get();
+    }
+
+    /**
+     * Expected cost of sending one more connection here: connect latency scaled by the connections already open.
+     */
+    long score() {
+        return (latencyNanos.get() + 1) * (outstanding.get() + 1);
+    }
+
+    void recordLatency(long nanos) {
+        while (true) {
+            long current = latencyNanos.get();
+            long next = current == 0 || nanos > current ? nanos : (long) (current + (nanos - current) * EWMA_ALPHA);
+            if (latencyNanos.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the upstream was unhealthy before.
+     */
+    boolean markHealthy() {
+        return healthy.compareAndSet(false, true);
+    }
+
+    /**
+     * Returns true if the upstream was healthy before.
+     */
+    boolean markUnhealthy() {
+        return healthy.compareAndSet(true, false);
+    }
+
+    /**
+     * Returns true if {@code cause} means the upstream itself could not be reached or dropped the connection: refused,
+     * timed out, reset or unresolvable. LittleProxy reports a CONNECT the upstream refuses, or a TLS handshake with an
+     * intercepted origin that fails, the same way, but those say nothing about the upstream.
+     */
+    static boolean isTransportFailure(Throwable cause) {
+        return (cause instanceof IOException && !(cause instanceof SSLException))
+                || cause instanceof UnresolvedAddressException;
+    }
+
+    ChainedProxy newAttempt() {
+        return new Attempt();
+    }
+
+    @Override
+    public String toString() {
+        return address.toString();
+    }
+
+    /**
+     * One connection attempt through this upstream. LittleProxy moves on to the next attempt in the queue when this
+     * one fails.
+     */
+    private final class Attempt extends ChainedProxyAdapter {
+        private long startNanos;
+        private boolean connected;
+
+        @Override
+        public InetSocketAddress getChainedProxyAddress() {
+            if (startNanos == 0) {
+                startNanos = System.nanoTime();
+            }
+            return address.get();
+        }
+
+        @Override
+        public void filterRequest(HttpObject httpObject) {
+            // Requests inside an intercepted tunnel have path-only URIs and go to the origin;
+            // only requests addressed to the upstream proxy may carry its credentials
+            if (httpObject instanceof HttpRequest
+                    && !((HttpRequest) httpObject).uri().startsWith("/")) {
+                HttpRequest request = (HttpRequest) httpObject;
+                request.headers().set(HttpHeaderNames.PROXY_AUTHORIZATION, proxyAuthorization);
+            }
+        }
+
+        @Override
+        public void connectionFailed(Throwable cause) {
+            metrics.upstreamConnectFailures.increment();
+            log.message("CONNECTION FAILED to upstream " + address + " - "
+                    + (cause == null ? "no cause" : cause.getClass().getSimpleName() + ": " + cause.getMessage()));
+            // A CONNECT that one origin fails must not take the upstream out of rotation for every other request
+            if (isTransportFailure(cause)) {
+                markUnhealthy();
+            }
+        }
+
+        @Override
+        public void connectionSucceeded() {
+            if (!connected) {
+                connected = true;
+                outstanding.incrementAndGet();
+                recordLatency(System.nanoTime() - startNanos);
+                markHealthy();
+            }
+        }
+
+        @Override
+        public void disconnected() {
+            if (connected) {
+                connected = false;
+                outstanding.decrementAndGet();
+            }
+        }
+    }
+}